@@ -28,6 +28,7 @@ import org.bukkit.plugin.java.JavaPlugin;
 
 import net.dmulloy2.swornapi.commands.Command;
 import net.dmulloy2.swornapi.commands.CommandProps;
+import net.dmulloy2.swornapi.config.ConfigParser;
 import net.dmulloy2.swornapi.handlers.CommandHandler;
 import net.dmulloy2.swornapi.handlers.LogHandler;
 import net.dmulloy2.swornapi.handlers.PermissionHandler;
@@ -135,6 +136,7 @@ public abstract class SwornPlugin extends JavaPlugin implements Reloadable
 	@Override
 	public void reload()
 	{
+		ConfigParser.clearCaches();
 		reloadConfig();
 	}
 }
\ No newline at end of file
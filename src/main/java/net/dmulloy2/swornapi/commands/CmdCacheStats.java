@@ -0,0 +1,87 @@
+/**
+ * SwornAPI - common API for MineSworn and Shadowvolt plugins
+ * Copyright (C) 2016 dmulloy2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.dmulloy2.swornapi.commands;
+
+import net.dmulloy2.swornapi.SwornPlugin;
+import net.dmulloy2.swornapi.io.AbstractDataCache;
+import net.dmulloy2.swornapi.io.CacheMetrics;
+import net.dmulloy2.swornapi.io.IPlayerDataCache;
+import net.dmulloy2.swornapi.io.OffHeapDataTier;
+import net.dmulloy2.swornapi.types.IPermission;
+
+/**
+ * Generic player data cache statistics command
+ * @author dmulloy2
+ *
+ * @see IPlayerDataCache#getMetrics()
+ * @see CommandProps#setReloadPerm(IPermission)
+ */
+public class CmdCacheStats extends Command
+{
+	private final IPlayerDataCache<?> dataCache;
+
+	public CmdCacheStats(SwornPlugin plugin, IPlayerDataCache<?> dataCache)
+	{
+		super(plugin);
+		this.dataCache = dataCache;
+		this.name = "cachestats";
+		this.addOptionalArg("reset");
+		this.description = "Show " + plugin.getName() + " data cache statistics";
+		this.permission = props().getReloadPerm();
+		this.usesPrefix = true;
+	}
+
+	@Override
+	public void perform()
+	{
+		CacheMetrics metrics = dataCache.getMetrics();
+
+		sendMessage("{h}---- {b}{0} Data Cache {h}----", plugin.getName());
+		sendMessage("Entries: {a}{0}", metrics.getEntryCount());
+		sendMessage("Hits: {a}{0} {b}Misses: {a}{1} {b}Hit rate: {a}{2}%", metrics.getHits(), metrics.getMisses(),
+				String.format("%.1f", metrics.getHitRate() * 100.0D));
+		sendHistogram("Loads", metrics.getLoadTimes());
+		sendHistogram("Saves", metrics.getSaveTimes());
+
+		long lastFullSave = metrics.getLastFullSave();
+		sendMessage("Last full save: {a}{0}", lastFullSave < 0 ? "never" : lastFullSave + " ms");
+
+		OffHeapDataTier tier = dataCache instanceof AbstractDataCache<?> cache ? cache.getOffHeapTier() : null;
+		if (tier != null)
+		{
+			sendMessage("Off-heap: {a}{0} {b}entries, {a}{1}{b}/{a}{2} {b}KiB, hits {a}{3} {b}misses {a}{4} {b}evictions {a}{5}",
+					tier.getEntryCount(), tier.getUsedBytes() / 1024, tier.getMaxBytes() / 1024, tier.getHits(),
+					tier.getMisses(), tier.getEvictions());
+		}
+
+		if (args.length > 0 && args[0].equalsIgnoreCase("reset"))
+		{
+			metrics.reset();
+			if (tier != null)
+				tier.resetMetrics();
+			sendpMessage("Statistics reset.");
+		}
+	}
+
+	private void sendHistogram(String label, CacheMetrics.Histogram histogram)
+	{
+		sendMessage("{0}: {a}{1} {b}mean {a}{2} {b}p99 {a}{3} {b}max {a}{4} {b}ms", label, histogram.getCount(),
+				String.format("%.2f", histogram.getMean()), String.format("%.2f", histogram.getPercentile(99)),
+				String.format("%.2f", histogram.getMax()));
+	}
+}
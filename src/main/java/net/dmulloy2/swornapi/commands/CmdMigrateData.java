@@ -0,0 +1,112 @@
+/**
+ * SwornAPI - common API for MineSworn and Shadowvolt plugins
+ * Copyright (C) 2016 dmulloy2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.dmulloy2.swornapi.commands;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bukkit.command.CommandSender;
+
+import net.dmulloy2.swornapi.SwornPlugin;
+import net.dmulloy2.swornapi.io.DataMigration;
+import net.dmulloy2.swornapi.types.IPermission;
+
+/**
+ * Generic player data migration command. Runs a {@link DataMigration} in the
+ * background and reports its progress to the sender who started it.
+ * @author dmulloy2
+ *
+ * @see CommandProps#setReloadPerm(IPermission)
+ */
+public class CmdMigrateData extends Command
+{
+	private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toMillis(5);
+
+	private final DataMigration<?> migration;
+
+	public CmdMigrateData(SwornPlugin plugin, DataMigration<?> migration)
+	{
+		super(plugin);
+		this.migration = migration;
+		this.name = "migratedata";
+		this.addOptionalArg("status|cancel");
+		this.description = "Migrate " + plugin.getName() + " player data";
+		this.permission = props().getReloadPerm();
+		this.usesPrefix = true;
+	}
+
+	@Override
+	public void perform()
+	{
+		if (args.length > 0 && args[0].equalsIgnoreCase("cancel"))
+		{
+			checkArgument(migration.isRunning(), "No migration is running.");
+			migration.cancel();
+			sendpMessage("Cancelling migration after the current batches...");
+			return;
+		}
+
+		if (args.length > 0 && args[0].equalsIgnoreCase("status"))
+		{
+			sendProgress(sender, migration.getProgress());
+			return;
+		}
+
+		checkArgument(!migration.isRunning(), "A migration is already running.");
+
+		CommandSender sender = this.sender;
+		AtomicLong lastReport = new AtomicLong(System.currentTimeMillis());
+		migration.setListener(progress ->
+		{
+			long now = System.currentTimeMillis();
+			long last = lastReport.get();
+			if (now - last >= PROGRESS_INTERVAL && lastReport.compareAndSet(last, now))
+				runSync(() -> sendProgress(sender, progress));
+		});
+
+		sendpMessage("Starting data migration...");
+		migration.start().whenComplete((result, ex) -> runSync(() ->
+		{
+			if (ex != null)
+			{
+				err(sender, "Migration failed: {0}", ex);
+				return;
+			}
+
+			sendpMessage(sender, "Migration {0} in {1} ms: {2} written, {3} skipped, {4} failed.",
+					result.cancelled() ? "cancelled" : "complete", result.duration(), result.written(),
+					result.skipped(), result.failed());
+			if (result.targetCount() >= 0)
+			{
+				sendpMessage(sender, "Verification {0}: target holds {1} entries.",
+						result.isVerified() ? "passed" : "failed", result.targetCount());
+			}
+		}));
+	}
+
+	private void sendProgress(CommandSender sender, DataMigration.Progress progress)
+	{
+		sendpMessage(sender, "Migration progress: {0} read, {1} written, {2} skipped, {3} failed.",
+				progress.read(), progress.written(), progress.skipped(), progress.failed());
+	}
+
+	private void runSync(Runnable task)
+	{
+		plugin.getServer().getScheduler().runTask(plugin, task);
+	}
+}
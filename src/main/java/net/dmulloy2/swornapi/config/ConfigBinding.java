@@ -0,0 +1,245 @@
+/**
+ * SwornAPI - common API for MineSworn and Shadowvolt plugins
+ * Copyright (C) 2015 dmulloy2
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.dmulloy2.swornapi.config;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The compiled binding plan of a configuration class: every {@link Key}
+ * field with its accessors, transform annotations and custom converters,
+ * resolved once per class so that parsing does no reflective lookups.
+ *
+ * @author dmulloy2
+ */
+
+final class ConfigBinding
+{
+	private static final ClassValue<ConfigBinding> BINDINGS = new ClassValue<>()
+	{
+		@Override
+		protected ConfigBinding computeValue(Class<?> type)
+		{
+			return new ConfigBinding(type);
+		}
+	};
+
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+	private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+	private static final MethodType CONVERTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+	private final List<FieldBinding> fields;
+
+	private ConfigBinding(Class<?> clazz)
+	{
+		List<FieldBinding> fields = new ArrayList<>();
+		for (Field field : clazz.getDeclaredFields())
+		{
+			Key key = field.getAnnotation(Key.class);
+			if (key != null)
+				fields.add(new FieldBinding(field, key.value()));
+		}
+
+		this.fields = Collections.unmodifiableList(fields);
+	}
+
+	static ConfigBinding of(Class<?> clazz)
+	{
+		return BINDINGS.get(clazz);
+	}
+
+	List<FieldBinding> getFields()
+	{
+		return fields;
+	}
+
+	/**
+	 * A single {@link Key} field. Problems found while resolving the field are
+	 * kept and reported each time it is parsed, like they were before plans
+	 * were cached.
+	 */
+	static final class FieldBinding
+	{
+		final Field field;
+		final String path;
+		final TransformRegistry registryTransform;
+		final TransformValue standardTransform;
+
+		private MethodHandle getter;
+		private MethodHandle setter;
+		private final List<Converter> converters = new ArrayList<>();
+
+		/** Whether this field can be parsed off the main thread */
+		final boolean threadSafe;
+
+		/** Error making the field accessible, reported as an access failure */
+		final Throwable accessError;
+		/** Error resolving the setter or converters, reported as a load failure */
+		final Throwable bindError;
+
+		private FieldBinding(Field field, String path)
+		{
+			this.field = field;
+			this.path = path;
+			this.registryTransform = field.getAnnotation(TransformRegistry.class);
+			this.standardTransform = field.getAnnotation(TransformValue.class);
+
+			Throwable accessError = null;
+			Throwable bindError = null;
+
+			try
+			{
+				field.setAccessible(true);
+
+				MethodHandles.Lookup lookup = MethodHandles.lookup();
+				boolean isStatic = Modifier.isStatic(field.getModifiers());
+				this.getter = adapt(lookup.unreflectGetter(field), isStatic, GETTER_TYPE);
+
+				try
+				{
+					this.setter = adapt(lookup.unreflectSetter(field), isStatic, SETTER_TYPE);
+				}
+				catch (IllegalAccessException ex)
+				{
+					// Final fields can be read for defaults but not set
+					bindError = ex;
+				}
+			}
+			catch (Throwable ex)
+			{
+				accessError = ex;
+			}
+
+			if (bindError == null && registryTransform == null && standardTransform != null)
+			{
+				try
+				{
+					for (Class<?> custom : standardTransform.custom())
+					{
+						Method convert = custom.getMethod("convert", Object.class);
+						if (convert.canAccess(null))
+						{
+							MethodHandle handle = MethodHandles.publicLookup().unreflect(convert);
+							converters.add(new Converter(custom, handle.asType(CONVERTER_TYPE)));
+						}
+					}
+				}
+				catch (Throwable ex)
+				{
+					bindError = ex;
+				}
+			}
+
+			this.accessError = accessError;
+			this.bindError = bindError;
+
+			// Custom converters are unknown code, so they stay on the main thread
+			this.threadSafe = registryTransform == null && (standardTransform == null
+				|| (standardTransform.value().isThreadSafe() && standardTransform.custom().length == 0));
+		}
+
+		private static MethodHandle adapt(MethodHandle handle, boolean isStatic, MethodType type)
+		{
+			// Static accessors ignore the instance argument
+			if (isStatic)
+				handle = MethodHandles.dropArguments(handle, 0, Object.class);
+			return handle.asType(type);
+		}
+
+		Object get(Object object) throws Throwable
+		{
+			return (Object) getter.invokeExact(object);
+		}
+
+		void set(Object object, Object value) throws Throwable
+		{
+			setter.invokeExact(object, widen(value));
+		}
+
+		List<Converter> getConverters()
+		{
+			return converters;
+		}
+
+		/**
+		 * Applies the widening conversions {@link Field#set(Object, Object)}
+		 * performs for primitive fields, since YAML reads most whole numbers
+		 * as integers.
+		 */
+		private Object widen(Object value)
+		{
+			Class<?> type = field.getType();
+			if (!type.isPrimitive() || !(value instanceof Number number))
+			{
+				return value;
+			}
+
+			int from = rank(value.getClass());
+			int to = rank(type);
+			if (from < 0 || to < 0 || from >= to)
+			{
+				return value;
+			}
+
+			if (type == Short.TYPE)
+				return number.shortValue();
+			if (type == Integer.TYPE)
+				return number.intValue();
+			if (type == Long.TYPE)
+				return number.longValue();
+			if (type == Float.TYPE)
+				return number.floatValue();
+			return number.doubleValue();
+		}
+
+		private static int rank(Class<?> type)
+		{
+			if (type == Byte.class || type == Byte.TYPE)
+				return 0;
+			if (type == Short.class || type == Short.TYPE)
+				return 1;
+			if (type == Integer.class || type == Integer.TYPE)
+				return 2;
+			if (type == Long.class || type == Long.TYPE)
+				return 3;
+			if (type == Float.class || type == Float.TYPE)
+				return 4;
+			if (type == Double.class || type == Double.TYPE)
+				return 5;
+			return -1;
+		}
+	}
+
+	/**
+	 * A custom converter's bound <code>convert</code> method.
+	 */
+	record Converter(Class<?> owner, MethodHandle handle)
+	{
+		Object convert(Object value) throws Throwable
+		{
+			return (Object) handle.invokeExact(value);
+		}
+	}
+}
@@ -17,22 +17,27 @@
  */
 package net.dmulloy2.swornapi.config;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
-import io.papermc.paper.registry.RegistryAccess;
-import io.papermc.paper.registry.RegistryKey;
-
-import org.bukkit.Keyed;
 import org.bukkit.Material;
 import org.bukkit.NamespacedKey;
-import org.bukkit.Registry;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.inventory.ItemStack;
@@ -52,10 +57,34 @@ public final class ConfigParser
 {
 	public static final int TICKS_PER_SECOND = 20;
 
+	/**
+	 * Incremental parsing state of each target, keyed by the identity of the
+	 * target object, or the class for static configurations. Targets are held
+	 * weakly and their states are dropped once they are collected.
+	 */
+	private static final Map<TargetKey, TargetState> STATES = new HashMap<>();
+	private static final ReferenceQueue<Object> COLLECTED = new ReferenceQueue<>();
+
+	private static final int ITEM_CACHE_SIZE = 1024;
+
+	/**
+	 * Parsed items by transform and normalized raw value, most recently used
+	 * last. Entries are never handed out directly, only clones.
+	 */
+	private static final Map<ItemKey, ItemStack> ITEMS = Collections.synchronizedMap(new LinkedHashMap<>(64, 0.75F, true)
+	{
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ItemKey, ItemStack> eldest)
+		{
+			return size() > ITEM_CACHE_SIZE;
+		}
+	});
+
 	private final SwornPlugin plugin;
 	private final FileConfiguration config;
 	private final Class<?> clazz;
 	private final Object object;
+	private final TargetState state;
 
 	private ConfigParser(SwornPlugin plugin, FileConfiguration config, Class<?> clazz, Object object)
 	{
@@ -63,6 +92,19 @@ public final class ConfigParser
 		this.config = config;
 		this.clazz = clazz;
 		this.object = object;
+		this.state = state(object != null ? object : clazz);
+	}
+
+	private static TargetState state(Object target)
+	{
+		synchronized (STATES)
+		{
+			Reference<?> collected;
+			while ((collected = COLLECTED.poll()) != null)
+				STATES.remove(collected);
+
+			return STATES.computeIfAbsent(new TargetKey(target, COLLECTED), key -> new TargetState());
+		}
 	}
 
 	/**
@@ -97,6 +139,137 @@ public final class ConfigParser
 		new ConfigParser(plugin, config, clazz, null).parse();
 	}
 
+	/**
+	 * Parses several configurations at once. Each configuration's thread-safe
+	 * fields are parsed concurrently on the common fork-join pool; fields that
+	 * use registry transforms, transforms that create items, or custom
+	 * converters are then parsed on the calling thread, in the order given.
+	 * This should be called from the main thread.
+	 *
+	 * @param plugin Plugin instance
+	 * @param targets Configurations to parse
+	 * @see Transform#isThreadSafe()
+	 */
+	public static void parseAll(SwornPlugin plugin, List<Target> targets)
+	{
+		List<ConfigParser> parsers = new ArrayList<>(targets.size());
+		List<ForkJoinTask<List<ConfigBinding.FieldBinding>>> tasks = new ArrayList<>(targets.size());
+
+		for (Target target : targets)
+		{
+			ConfigParser parser = new ConfigParser(plugin, target.config(), target.clazz(), target.object());
+			parsers.add(parser);
+			tasks.add(ForkJoinPool.commonPool().submit(parser::parseThreadSafe));
+		}
+
+		for (int i = 0; i < parsers.size(); i++)
+		{
+			ConfigParser parser = parsers.get(i);
+			for (ConfigBinding.FieldBinding binding : tasks.get(i).join())
+			{
+				parser.parseField(binding);
+			}
+		}
+	}
+
+	/**
+	 * A configuration to parse with {@link #parseAll(SwornPlugin, List)}.
+	 *
+	 * @param config Configuration to read from
+	 * @param clazz  Configuration class
+	 * @param object Object to parse, or null for a static-based configuration
+	 */
+	public record Target(FileConfiguration config, Class<?> clazz, Object object)
+	{
+		public static Target of(FileConfiguration config, Object object)
+		{
+			return new Target(config, object.getClass(), object);
+		}
+
+		public static Target of(FileConfiguration config, Class<?> clazz)
+		{
+			return new Target(config, clazz, null);
+		}
+	}
+
+	/**
+	 * Incrementally parses an instance-based configuration. Only keys whose
+	 * raw values differ from those applied by the previous incremental parse
+	 * are transformed and assigned again. The first parse of a target applies
+	 * every key.
+	 *
+	 * @param plugin Plugin instance
+	 * @param object Object to parse
+	 * @return The paths of the keys that changed
+	 */
+	public static Set<String> parseIncremental(SwornPlugin plugin, Object object)
+	{
+		return new ConfigParser(plugin, plugin.getConfig(), object.getClass(), object).parseIncremental();
+	}
+
+	/**
+	 * Incrementally parses a static-based configuration.
+	 *
+	 * @param plugin Plugin instance
+	 * @param clazz  Configuration class
+	 * @return The paths of the keys that changed
+	 * @see #parseIncremental(SwornPlugin, Object)
+	 */
+	public static Set<String> parseIncremental(SwornPlugin plugin, Class<?> clazz)
+	{
+		return new ConfigParser(plugin, plugin.getConfig(), clazz, null).parseIncremental();
+	}
+
+	public static Set<String> parseIncremental(SwornPlugin plugin, FileConfiguration config, Object object)
+	{
+		return new ConfigParser(plugin, config, object.getClass(), object).parseIncremental();
+	}
+
+	public static Set<String> parseIncremental(SwornPlugin plugin, FileConfiguration config, Class<?> clazz)
+	{
+		return new ConfigParser(plugin, config, clazz, null).parseIncremental();
+	}
+
+	/**
+	 * Clears cached transform results and registry lookup tables, so that
+	 * values are resolved again. This is called when a plugin is reloaded.
+	 */
+	public static void clearCaches()
+	{
+		ITEMS.clear();
+		RegistryLookup.invalidate();
+	}
+
+	static int cachedItemCount()
+	{
+		return ITEMS.size();
+	}
+
+	private static <X extends Throwable> ItemStack memoize(Transform transform, Object raw, ItemReader<X> reader) throws X
+	{
+		ItemKey key = new ItemKey(transform, normalize(raw));
+		ItemStack cached = ITEMS.get(key);
+		if (cached != null)
+		{
+			return cached.clone();
+		}
+
+		// Failures are not cached, so their warnings are logged every time
+		ItemStack item = reader.read();
+		if (item != null)
+			ITEMS.put(key, item.clone());
+
+		return item;
+	}
+
+	private record ItemKey(Transform transform, Object raw) { }
+
+	@FunctionalInterface
+	private interface ItemReader<X extends Throwable>
+	{
+		ItemStack read() throws X;
+	}
+
 	private Object parseValue(Object value, Object def, String path, Field field, TransformValue options)
 	{
 		return switch (options.value())
@@ -130,16 +303,16 @@ public final class ConfigParser
 			case PARSE_LEGACY_ITEMS -> ItemUtil.readItems((List<String>) value, plugin);
 			case PARSE_ITEM ->
 			{
-				if (value instanceof String)
+				if (value instanceof String string)
 				{
-					yield ItemUtil.readItem(value.toString(), plugin);
+					yield memoize(Transform.PARSE_ITEM, string, () -> ItemUtil.readItem(string, plugin));
 				} else
 				{
 					ConfigurationSection section = config.getConfigurationSection(path);
 
 					try
 					{
-						yield ModernItemParser.parseItem(section);
+						yield memoize(Transform.PARSE_ITEM, section, () -> ModernItemParser.parseItem(section));
 					} catch (InvalidItemException ex)
 					{
 						plugin.getLogHandler().warn(ex, "Failed to parse item from {0}", path);
@@ -154,9 +327,9 @@ public final class ConfigParser
 				for (int i = 0; i < entries.size(); i++)
 				{
 					Object element = entries.get(i);
-					if (element instanceof String)
+					if (element instanceof String string)
 					{
-						ItemStack item = ItemUtil.readItem(element.toString(), plugin);
+						ItemStack item = memoize(Transform.PARSE_ITEMS, string, () -> ItemUtil.readItem(string, plugin));
 						if (item != null || options.allowNull())
 						{
 							items.add(item);
@@ -166,7 +339,7 @@ public final class ConfigParser
 					{
 						try
 						{
-							items.add(ModernItemParser.parseItem((Map<String, Object>) element));
+							items.add(memoize(Transform.PARSE_ITEMS, element, () -> ModernItemParser.parseItem((Map<String, Object>) element)));
 						} catch (InvalidItemException ex)
 						{
 							plugin.getLogHandler().warn(ex, "Failed to parse item from {0}.{1}", path, i);
@@ -212,29 +385,32 @@ public final class ConfigParser
 
 	private Object parseRegistry(String path, Object value, TransformRegistry registryTransform)
 	{
-		RegistryAccess registryAccess = RegistryAccess.registryAccess();
-		RegistryKey<? extends Keyed> registryKey = registryTransform.value().getKey();
-		Registry<?> registry = registryAccess.getRegistry(registryKey);
+		KnownRegistry registry = registryTransform.value();
+		RegistryLookup.listen(plugin);
 
 		if (value instanceof List<?> list)
 		{
 			List<Object> entries = new ArrayList<>();
 			for (int i = 0; i < list.size(); i++)
 			{
-				Object entry = list.get(i);
-				String keyStr = entry.toString().toLowerCase();
-				NamespacedKey keyValue = NamespacedKey.fromString(keyStr);
-				if (keyValue == null)
+				String keyStr = list.get(i).toString();
+				Object registryEntry = RegistryLookup.get(registry, keyStr);
+				if (registryEntry == null)
 				{
-					plugin.getLogHandler().warn("\"{0}\" is not a valid registry key (from {1}.{2})", keyStr, path, i);
-					continue;
-				}
+					// Only misses need the key parsed, to report why
+					keyStr = keyStr.toLowerCase();
+					NamespacedKey keyValue = NamespacedKey.fromString(keyStr);
+					if (keyValue == null)
+					{
+						plugin.getLogHandler().warn("\"{0}\" is not a valid registry key (from {1}.{2})", keyStr, path, i);
+						continue;
+					}
 
-				Object registryEntry = registry.get(keyValue);
-				if (registryEntry == null && !registryTransform.allowNull())
-				{
-					plugin.getLogHandler().warn("\"{0}\" is not a valid entry in registry {1} (from {2}.{3})", keyValue, registryKey, path, i);
-					continue;
+					if (!registryTransform.allowNull())
+					{
+						plugin.getLogHandler().warn("\"{0}\" is not a valid entry in registry {1} (from {2}.{3})", keyValue, registry.getKey(), path, i);
+						continue;
+					}
 				}
 
 				entries.add(registryEntry);
@@ -244,46 +420,49 @@ public final class ConfigParser
 		}
 		else
 		{
-			String keyStr = value.toString().toLowerCase();
-			NamespacedKey keyValue = NamespacedKey.fromString(keyStr);
-			if (keyValue == null)
+			String keyStr = value.toString();
+			value = RegistryLookup.get(registry, keyStr);
+			if (value == null)
 			{
-				plugin.getLogHandler().warn("\"{0}\" is not a valid registry key (from {1})", keyStr, path);
-				return null;
-			}
+				keyStr = keyStr.toLowerCase();
+				NamespacedKey keyValue = NamespacedKey.fromString(keyStr);
+				if (keyValue == null)
+				{
+					plugin.getLogHandler().warn("\"{0}\" is not a valid registry key (from {1})", keyStr, path);
+					return null;
+				}
 
-			value = registry.get(keyValue);
-			if (value == null && !registryTransform.allowNull())
-			{
-				plugin.getLogHandler().warn("\"{0}\" is not a valid entry in registry {1} (from {2})", keyValue, registryKey, path);
-				return null;
+				if (!registryTransform.allowNull())
+				{
+					plugin.getLogHandler().warn("\"{0}\" is not a valid entry in registry {1} (from {2})", keyValue, registry.getKey(), path);
+					return null;
+				}
 			}
 
 			return value;
 		}
 	}
 
-	private void parseField(Field field)
+	private void parseField(ConfigBinding.FieldBinding binding)
 	{
-		if (!field.canAccess(object)) field.setAccessible(true);
+		if (binding.accessError != null)
+		{
+			plugin.getLogHandler().log(Level.WARNING, Util.getUsefulStack(binding.accessError, "accessing field {0}", binding.field));
+			return;
+		}
 
+		String path = binding.path;
 		Object def = null;
 
 		try
 		{
-			def = field.get(object);
+			def = binding.get(object);
+			state.captureDefault(path, def);
 		} catch (Throwable ex)
 		{
-			plugin.getLogHandler().log(Level.WARNING, Util.getUsefulStack(ex, "accessing field {0}", field));
-		}
-
-		Key key = field.getAnnotation(Key.class);
-		if (key == null)
-		{
-			return;
+			plugin.getLogHandler().log(Level.WARNING, Util.getUsefulStack(ex, "accessing field {0}", binding.field));
 		}
 
-		String path = key.value();
 		Object value = def;
 
 		try
@@ -294,8 +473,8 @@ public final class ConfigParser
 				return;
 			}
 
-			TransformRegistry registryTransform = field.getAnnotation(TransformRegistry.class);
-			TransformValue standardTransform = field.getAnnotation(TransformValue.class);
+			TransformRegistry registryTransform = binding.registryTransform;
+			TransformValue standardTransform = binding.standardTransform;
 
 			if (registryTransform != null)
 			{
@@ -303,36 +482,30 @@ public final class ConfigParser
 			}
 			else if (standardTransform != null)
 			{
-				value = parseValue(value, def, path, field, standardTransform);
+				value = parseValue(value, def, path, binding.field, standardTransform);
 
-				for (Class<?> custom : standardTransform.custom())
+				for (ConfigBinding.Converter converter : binding.getConverters())
 				{
-					Method convert = custom.getMethod("convert", Object.class);
-					if (convert.canAccess(null))
+					try
 					{
-						try
-						{
-							value = convert.invoke(null, value);
-						} catch (Throwable ex)
-						{
-							plugin.getLogHandler().log(Level.WARNING, Util.getUsefulStack(ex, "converting {0} using {1}", path, custom.getName()));
-						}
+						value = converter.convert(value);
+					} catch (Throwable ex)
+					{
+						plugin.getLogHandler().log(Level.WARNING, Util.getUsefulStack(ex, "converting {0} using {1}", path, converter.owner().getName()));
 					}
 				}
 			}
 
-			try
+			if (binding.bindError != null)
 			{
-				field.set(object, value);
-			} catch (IllegalArgumentException ex)
-			{
-				plugin.getLogHandler().log(Level.WARNING, "\"{0}\" is the wrong type: expected {1}, but got {2}", path, field.getType(), value.getClass().getName());
-				plugin.getLogHandler().debug(Level.WARNING, Util.getUsefulStack(ex, "setting {0} to {1}", field, value));
+				throw binding.bindError;
 			}
+
+			binding.set(object, value);
 		} catch (ClassCastException ex)
 		{
-			plugin.getLogHandler().log(Level.WARNING, "\"{0}\" is the wrong type: expected {1}, but got {2}", path, field.getType(), value.getClass().getName());
-			plugin.getLogHandler().debug(Level.WARNING, Util.getUsefulStack(ex, "setting {0} to {1}", field, value));
+			plugin.getLogHandler().log(Level.WARNING, "\"{0}\" is the wrong type: expected {1}, but got {2}", path, binding.field.getType(), value.getClass().getName());
+			plugin.getLogHandler().debug(Level.WARNING, Util.getUsefulStack(ex, "setting {0} to {1}", binding.field, value));
 		} catch (Throwable ex)
 		{
 			plugin.getLogHandler().log(Level.SEVERE, Util.getUsefulStack(ex, "loading value from {0}", path));
@@ -341,9 +514,180 @@ public final class ConfigParser
 
 	private void parse()
 	{
-		for (Field field : clazz.getDeclaredFields())
+		// Values applied outside of incremental parsing invalidate its state
+		state.setApplied(null);
+
+		for (ConfigBinding.FieldBinding binding : ConfigBinding.of(clazz).getFields())
+		{
+			parseField(binding);
+		}
+	}
+
+	/**
+	 * Parses every thread-safe field and returns the rest.
+	 */
+	private List<ConfigBinding.FieldBinding> parseThreadSafe()
+	{
+		state.setApplied(null);
+
+		List<ConfigBinding.FieldBinding> deferred = new ArrayList<>();
+		for (ConfigBinding.FieldBinding binding : ConfigBinding.of(clazz).getFields())
+		{
+			if (binding.threadSafe)
+				parseField(binding);
+			else
+				deferred.add(binding);
+		}
+
+		return deferred;
+	}
+
+	private Set<String> parseIncremental()
+	{
+		Map<String, Object> previous = state.getApplied();
+		Map<String, Object> applied = new HashMap<>();
+		Set<String> changed = new LinkedHashSet<>();
+
+		for (ConfigBinding.FieldBinding binding : ConfigBinding.of(clazz).getFields())
+		{
+			String path = binding.path;
+			Object raw = normalize(config.get(path));
+			applied.put(path, raw);
+
+			if (previous != null && previous.containsKey(path) && Objects.equals(previous.get(path), raw))
+			{
+				continue;
+			}
+
+			if (raw == null && previous != null)
+			{
+				// The key was removed, so go back to the field's default
+				if (resetField(binding))
+					changed.add(path);
+				continue;
+			}
+
+			parseField(binding);
+			changed.add(path);
+		}
+
+		state.setApplied(applied);
+		return Collections.unmodifiableSet(changed);
+	}
+
+	private boolean resetField(ConfigBinding.FieldBinding binding)
+	{
+		if (binding.accessError != null || binding.bindError != null || !state.hasDefault(binding.path))
+		{
+			return false;
+		}
+
+		try
+		{
+			binding.set(object, state.getDefault(binding.path));
+			return true;
+		} catch (Throwable ex)
+		{
+			plugin.getLogHandler().log(Level.SEVERE, Util.getUsefulStack(ex, "resetting {0}", binding.field));
+			return false;
+		}
+	}
+
+	/**
+	 * A weak reference to a parse target that compares by identity, so that
+	 * targets with value-based equality never share state.
+	 */
+	private static final class TargetKey extends WeakReference<Object>
+	{
+		private final int hash;
+
+		private TargetKey(Object target, ReferenceQueue<Object> queue)
+		{
+			super(target, queue);
+			this.hash = System.identityHashCode(target);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (obj == this)
+			{
+				return true;
+			}
+
+			Object target = get();
+			return target != null && obj instanceof TargetKey other && other.get() == target;
+		}
+	}
+
+	/**
+	 * The value of each field before its first parse, and the raw values
+	 * last applied by an incremental parse.
+	 */
+	private static final class TargetState
+	{
+		private final Map<String, Object> defaults = new HashMap<>();
+		private Map<String, Object> applied;
+
+		private synchronized void captureDefault(String path, Object value)
 		{
-			parseField(field);
+			if (!defaults.containsKey(path))
+				defaults.put(path, value);
 		}
+
+		private synchronized boolean hasDefault(String path)
+		{
+			return defaults.containsKey(path);
+		}
+
+		private synchronized Object getDefault(String path)
+		{
+			return defaults.get(path);
+		}
+
+		private synchronized Map<String, Object> getApplied()
+		{
+			return applied;
+		}
+
+		private synchronized void setApplied(Map<String, Object> applied)
+		{
+			this.applied = applied;
+		}
+	}
+
+	/**
+	 * Copies a raw config value into a form that can be compared by value.
+	 * Sections are converted into maps, since they only compare by identity.
+	 */
+	private static Object normalize(Object value)
+	{
+		if (value instanceof ConfigurationSection section)
+		{
+			return normalize(section.getValues(false));
+		}
+
+		if (value instanceof Map<?, ?> map)
+		{
+			Map<Object, Object> copy = new LinkedHashMap<>();
+			map.forEach((key, element) -> copy.put(key, normalize(element)));
+			return copy;
+		}
+
+		if (value instanceof List<?> list)
+		{
+			List<Object> copy = new ArrayList<>(list.size());
+			for (Object element : list)
+				copy.add(normalize(element));
+			return copy;
+		}
+
+		return value;
 	}
 }
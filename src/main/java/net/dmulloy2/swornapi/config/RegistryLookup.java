@@ -0,0 +1,138 @@
+/**
+ * SwornAPI - common API for MineSworn and Shadowvolt plugins
+ * Copyright (C) 2015 dmulloy2
+ * <p>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.dmulloy2.swornapi.config;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import io.papermc.paper.event.server.ServerResourcesReloadedEvent;
+import io.papermc.paper.registry.RegistryAccess;
+
+import org.bukkit.Keyed;
+import org.bukkit.NamespacedKey;
+import org.bukkit.Registry;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Lookup tables for {@link KnownRegistry} entries. Each table is built on
+ * first use and maps lower case keys, with or without the
+ * <code>minecraft</code> namespace, straight to registry entries. Tables are
+ * dropped when the server reloads its data packs.
+ *
+ * @author dmulloy2
+ */
+
+public final class RegistryLookup
+{
+	private static final ConcurrentMap<KnownRegistry, Table> TABLES = new ConcurrentHashMap<>();
+
+	private static volatile Plugin listening;
+
+	private RegistryLookup() { }
+
+	/**
+	 * Looks up an entry by key. Keys are case-insensitive, and keys without a
+	 * namespace refer to the <code>minecraft</code> namespace.
+	 *
+	 * @param registry Registry to look in
+	 * @param key Entry key
+	 * @return The entry, or null if none matches
+	 */
+	public static Object get(KnownRegistry registry, String key)
+	{
+		Table table = TABLES.computeIfAbsent(registry, RegistryLookup::build);
+
+		Object entry = table.entries().get(key.toLowerCase(Locale.ROOT));
+		if (entry != null)
+		{
+			return entry;
+		}
+
+		// Entries registered after the table was built
+		NamespacedKey namespacedKey = NamespacedKey.fromString(key.toLowerCase(Locale.ROOT));
+		return namespacedKey != null ? table.registry().get(namespacedKey) : null;
+	}
+
+	/**
+	 * Drops every lookup table, so that they are rebuilt from the registries
+	 * on next use.
+	 */
+	public static void invalidate()
+	{
+		TABLES.clear();
+	}
+
+	/**
+	 * Makes sure tables are dropped when data packs are reloaded. The listener
+	 * is registered on behalf of the given plugin unless a plugin that is
+	 * still enabled already holds it.
+	 *
+	 * @param plugin Plugin to register the listener with
+	 */
+	public static synchronized void listen(Plugin plugin)
+	{
+		Plugin current = listening;
+		if (current != null && current.isEnabled())
+		{
+			return;
+		}
+
+		if (!plugin.isEnabled())
+		{
+			return;
+		}
+
+		plugin.getServer().getPluginManager().registerEvents(new Listener()
+		{
+			@EventHandler(priority = EventPriority.MONITOR)
+			public void onServerResourcesReloaded(ServerResourcesReloadedEvent event)
+			{
+				invalidate();
+			}
+		}, plugin);
+
+		// Reloads may have been missed while nobody was listening
+		invalidate();
+		listening = plugin;
+	}
+
+	private static Table build(KnownRegistry known)
+	{
+		Registry<? extends Keyed> registry = RegistryAccess.registryAccess().getRegistry(known.getKey());
+
+		Map<String, Object> entries = new HashMap<>();
+		for (Keyed entry : registry)
+		{
+			NamespacedKey key = entry.getKey();
+			entries.put(key.toString().toLowerCase(Locale.ROOT), entry);
+
+			if (key.getNamespace().equals(NamespacedKey.MINECRAFT))
+				entries.putIfAbsent(key.getKey().toLowerCase(Locale.ROOT), entry);
+		}
+
+		return new Table(registry, entries);
+	}
+
+	private record Table(Registry<? extends Keyed> registry, Map<String, Object> entries) { }
+}
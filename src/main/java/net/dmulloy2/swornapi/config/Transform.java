@@ -1,38 +1,55 @@
 package net.dmulloy2.swornapi.config;
 
+import lombok.Getter;
+
 public enum Transform
 {
-	FORMAT,
-	LIST_LOWER_CASE,
-	LIST_UPPER_CASE,
-	LOWER_CASE,
-	MINUTE_TO_MILLIS,
-	MINUTE_TO_TICKS,
-	PARSE_ENUM,
+	FORMAT(true),
+	LIST_LOWER_CASE(true),
+	LIST_UPPER_CASE(true),
+	LOWER_CASE(true),
+	MINUTE_TO_MILLIS(true),
+	MINUTE_TO_TICKS(true),
+	PARSE_ENUM(true),
 	/**
 	 * @deprecated Prefer {@link #PARSE_ITEM} with a modern item section
 	 */
 	@Deprecated
-	PARSE_LEGACY_ITEM,
-	PARSE_ITEM,
+	PARSE_LEGACY_ITEM(false),
+	PARSE_ITEM(false),
 	/**
 	 * @deprecated Prefer {@link #PARSE_ITEMS} with a modern item section
 	 */
 	@Deprecated
-	PARSE_LEGACY_ITEMS,
-	PARSE_ITEMS,
+	PARSE_LEGACY_ITEMS(false),
+	PARSE_ITEMS(false),
 	/**
 	 * @deprecated Prefer {@link TransformRegistry} with {@link org.bukkit.Material},
 	 * {@link org.bukkit.inventory.ItemType} or {@link org.bukkit.block.BlockType
 	 */
 	@Deprecated
-	PARSE_MATERIAL,
+	PARSE_MATERIAL(true),
 	/**
 	 * @deprecated Prefer {@link TransformRegistry} with {@link org.bukkit.Material},
 	 * {@link org.bukkit.inventory.ItemType} or {@link org.bukkit.block.BlockType
 	 */
 	@Deprecated
-	PARSE_MATERIALS,
-	SECOND_TO_MILLIS,
-	SECOND_TO_TICKS
+	PARSE_MATERIALS(true),
+	SECOND_TO_MILLIS(true),
+	SECOND_TO_TICKS(true),
+	;
+
+	/**
+	 * Whether this transform can run off the main thread. Transforms that
+	 * create items or touch registries are not.
+	 *
+	 * @see ConfigParser#parseAll(net.dmulloy2.swornapi.SwornPlugin, java.util.List)
+	 */
+	@Getter
+	private final boolean threadSafe;
+
+	Transform(boolean threadSafe)
+	{
+		this.threadSafe = threadSafe;
+	}
 }
@@ -32,7 +32,8 @@ import net.dmulloy2.swornapi.io.FileResourceLoader;
 public class ResourceHandler
 {
 	private Locale locale;
-	private ResourceBundle messages;
+	private volatile ResourceBundle messages;
+	private FileResourceLoader loader;
 
 	private final SwornPlugin plugin;
 	public ResourceHandler(SwornPlugin plugin)
@@ -51,7 +52,9 @@ public class ResourceHandler
 			if (locale == null)
 				locale = Locale.getDefault();
 
-			messages = ResourceBundle.getBundle("messages", locale, new FileResourceLoader(classLoader, plugin));
+			loader = new FileResourceLoader(classLoader, plugin);
+			loader.addChangeListener(this::reloadMessages);
+			messages = ResourceBundle.getBundle("messages", locale, loader);
 		}
 		catch (MissingResourceException ex)
 		{
@@ -59,6 +62,52 @@ public class ResourceHandler
 		}
 	}
 
+	/**
+	 * Reloads the messages bundle after a file in the data folder changed.
+	 */
+	private void reloadMessages()
+	{
+		ResourceBundle.clearCache(loader);
+
+		try
+		{
+			messages = ResourceBundle.getBundle("messages", locale, loader);
+		}
+		catch (MissingResourceException ex)
+		{
+			plugin.getLogHandler().log(Level.WARNING, "Could not reload resource bundle: {0}", ex.getKey());
+		}
+	}
+
+	/**
+	 * Watches the data folder so that changes to message overrides are picked
+	 * up without a restart. The handler must then be closed when the plugin
+	 * is disabled.
+	 *
+	 * @see #close()
+	 */
+	public void watchForChanges()
+	{
+		if (loader != null)
+		{
+			loader.watchForChanges();
+
+			// Look the bundle up again so that its files are watched
+			reloadMessages();
+		}
+	}
+
+	/**
+	 * Stops watching the data folder for message overrides. Plugins that
+	 * called {@link #watchForChanges()} should call this in
+	 * <code>onDisable</code>.
+	 */
+	public void close()
+	{
+		if (loader != null)
+			loader.close();
+	}
+
 	private boolean bundleWarning;
 
 	/**
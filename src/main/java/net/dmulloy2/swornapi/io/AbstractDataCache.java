@@ -2,19 +2,24 @@ package net.dmulloy2.swornapi.io;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
+import java.util.stream.Stream;
 
 import net.dmulloy2.swornapi.SwornPlugin;
 import net.dmulloy2.swornapi.util.Util;
+import net.dmulloy2.swornapi.util.Validate;
 
 import org.bukkit.Bukkit;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.configuration.serialization.ConfigurationSerializable;
 import org.bukkit.entity.Player;
+import org.bukkit.plugin.IllegalPluginAccessException;
 
 /**
  * @author dmulloy2
@@ -26,9 +31,36 @@ public abstract class AbstractDataCache<T extends AbstractPlayerData> implements
 
 	protected final SwornPlugin plugin;
 
+	private final ConcurrentMap<UUID, CompletableFuture<T>> loading;
+	private final ConcurrentMap<UUID, Long> lastAccess;
+	private final ConcurrentMap<UUID, CompletableFuture<Integer>> writing;
+
+	private volatile CachePolicy policy = new CachePolicy();
+	private final AtomicBoolean evictScheduled = new AtomicBoolean();
+	private volatile OffHeapDataTier offHeapTier;
+	private final int tierNamespace = OffHeapDataTier.newNamespace();
+	private volatile DataJournal journal;
+	private final ConcurrentMap<UUID, byte[]> unreplayed = new ConcurrentHashMap<>();
+
+	@SuppressWarnings("unchecked")
+	private final AbstractPlayerData.SnapshotFormat snapshotFormat = data -> toSnapshot((T) data);
+	private final boolean writesSnapshots = overrides("saveBatch", "saveSnapshot", "fromSnapshot", "fromSerialized");
+
+	protected final CacheMetrics metrics;
+
+	private volatile ThreadPoolExecutor saveExecutor;
+	private volatile ThreadPoolExecutor loadExecutor;
+	private volatile boolean shutdown;
+	private int saveBatchSize = 64;
+	private int loadThreads = 2;
+
 	public AbstractDataCache(SwornPlugin plugin)
 	{
 		this.cache = new ConcurrentHashMap<>(64, 0.75F, 64);
+		this.loading = new ConcurrentHashMap<>();
+		this.lastAccess = new ConcurrentHashMap<>();
+		this.writing = new ConcurrentHashMap<>();
+		this.metrics = new CacheMetrics(cache::size);
 		this.plugin = plugin;
 	}
 
@@ -43,57 +75,1275 @@ public abstract class AbstractDataCache<T extends AbstractPlayerData> implements
 		T data = cache.get(player.getUniqueId());
 		if (data != null)
 		{
+			metrics.recordHit();
+			touch(player.getUniqueId());
 			return data;
 		}
 
-		data = loadData(player);
+		metrics.recordMiss();
+
+		try
+		{
+			data = loadShared(player.getUniqueId(), player, null).join();
+		}
+		catch (CompletionException ex)
+		{
+			if (ex.getCause() instanceof RuntimeException cause)
+				throw cause;
+			throw ex;
+		}
+
 		if (data == null && player.isOnline())
 		{
 			data = newData(player);
 			data.setId(player.getUniqueId());
+			onDataLoad(data, player);
+
+			T existing = cache.putIfAbsent(player.getUniqueId(), data);
+			if (existing != null)
+				data = existing;
+			else
+				onInsert(player.getUniqueId());
 		}
 
+		return data;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Loads run on a small pool of background threads, so
+	 * {@link #onDataLoad(AbstractPlayerData, OfflinePlayer)} may be called off
+	 * the main thread. Loads queue up while every thread is busy, rather than
+	 * running on the calling thread.
+	 */
+	@Override
+	public CompletableFuture<T> getDataAsync(UUID uuid)
+	{
+		Validate.notNull(uuid, "uuid cannot be null!");
+
+		T data = cache.get(uuid);
 		if (data != null)
 		{
-			onDataLoad(data, player);
-			cache.put(player.getUniqueId(), data);
+			metrics.recordHit();
+			touch(uuid);
+			return CompletableFuture.completedFuture(data);
+		}
+
+		metrics.recordMiss();
+
+		return loadShared(uuid, null, loadExecutor());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * This is intended to be called from an
+	 * {@link org.bukkit.event.player.AsyncPlayerPreLoginEvent} handler so that
+	 * the player's data is already cached by the time they join.
+	 */
+	@Override
+	public T preload(UUID uuid)
+	{
+		Validate.notNull(uuid, "uuid cannot be null!");
+
+		T data = cache.get(uuid);
+		if (data != null)
+		{
+			metrics.recordHit();
+			touch(uuid);
+			return data;
+		}
+
+		metrics.recordMiss();
+		return loadShared(uuid, null, null).join();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Loads run on a temporary pool of <code>concurrency</code> threads,
+	 * separate from the one used by {@link #getDataAsync(UUID)}, and share
+	 * any load already in progress. Failed loads are logged and not counted.
+	 * If the cache has an entry limit, preloading more players than it allows
+	 * evicts the least recently used entries.
+	 */
+	@Override
+	public CompletableFuture<Integer> preload(Collection<UUID> uuids, int concurrency)
+	{
+		Validate.notNull(uuids, "uuids cannot be null!");
+		Validate.isTrue(concurrency > 0, "concurrency must be positive!");
+
+		List<UUID> pending = new ArrayList<>();
+		for (UUID uuid : new LinkedHashSet<>(uuids))
+		{
+			if (uuid != null && !cache.containsKey(uuid))
+				pending.add(uuid);
+		}
+
+		if (pending.isEmpty())
+			return CompletableFuture.completedFuture(0);
+
+		// The queue fits every load, so none run on the calling thread
+		ThreadPoolExecutor executor = newExecutor("DataPreload", Math.min(concurrency, pending.size()), pending.size());
+		AtomicInteger loaded = new AtomicInteger();
+
+		CompletableFuture<?>[] futures = new CompletableFuture<?>[pending.size()];
+		for (int i = 0; i < futures.length; i++)
+		{
+			UUID uuid = pending.get(i);
+			futures[i] = CompletableFuture.runAsync(() ->
+			{
+				try
+				{
+					if (loadShared(uuid, null, null).join() != null)
+						loaded.incrementAndGet();
+				}
+				catch (Throwable ex)
+				{
+					plugin.getLogHandler().log(Level.WARNING, Util.getUsefulStack(ex, "preloading data for {0}", uuid));
+				}
+			}, executor);
+		}
+
+		return CompletableFuture.allOf(futures)
+			.whenComplete((result, ex) -> executor.shutdown())
+			.thenApply(result -> loaded.get());
+	}
+
+	/**
+	 * Loads an entry into the cache, sharing a single load between every
+	 * caller asking for the same player at the same time.
+	 *
+	 * @param uuid Player's unique id
+	 * @param player Player, or null to look them up by unique id
+	 * @param executor Executor to load on, or null to load on this thread
+	 * @return A future completing with the loaded data, or null if none exists
+	 */
+	private CompletableFuture<T> loadShared(UUID uuid, OfflinePlayer player, Executor executor)
+	{
+		CompletableFuture<T> future = new CompletableFuture<>();
+		CompletableFuture<T> existing = loading.putIfAbsent(uuid, future);
+		if (existing != null)
+		{
+			return existing;
+		}
+
+		Runnable task = () ->
+		{
+			try
+			{
+				future.complete(loadAndCache(uuid, player != null ? player : plugin.getServer().getOfflinePlayer(uuid)));
+			}
+			catch (Throwable ex)
+			{
+				future.completeExceptionally(ex);
+			}
+			finally
+			{
+				loading.remove(uuid, future);
+			}
+		};
+
+		if (executor == null)
+		{
+			task.run();
+			return future;
+		}
+
+		try
+		{
+			executor.execute(task);
+		}
+		catch (RejectedExecutionException ex)
+		{
+			// The cache is shutting down
+			loading.remove(uuid, future);
+			future.completeExceptionally(ex);
+		}
+
+		return future;
+	}
+
+	private T loadAndCache(UUID uuid, OfflinePlayer player)
+	{
+		T data = cache.get(uuid);
+		if (data != null)
+		{
+			return data;
+		}
+
+		long start = System.nanoTime();
+		byte[] journaled = unreplayed.get(uuid);
+		data = journaled != null ? fromUnreplayed(uuid, journaled) : null;
+		if (data == null)
+		{
+			journaled = null;
+			data = rehydrate(uuid);
+		}
+
+		if (data == null)
+			data = loadData(player);
+		metrics.recordLoad(System.nanoTime() - start);
+		if (data == null)
+		{
+			return null;
+		}
+
+		// Stored data is older than a journaled snapshot that failed to replay
+		if (journaled == null)
+			data.markClean(snapshotFormat);
+		onDataLoad(data, player);
+
+		T existing = cache.putIfAbsent(uuid, data);
+		if (existing != null)
+		{
+			return existing;
 		}
 
+		// The cached entry is unsaved, so the next save writes it instead
+		if (journaled != null)
+			unreplayed.remove(uuid, journaled);
+
+		onInsert(uuid);
 		return data;
 	}
 
+	private ThreadPoolExecutor loadExecutor()
+	{
+		ThreadPoolExecutor executor = this.loadExecutor;
+		if (executor != null)
+		{
+			return executor;
+		}
+
+		synchronized (this)
+		{
+			if (this.loadExecutor == null)
+				this.loadExecutor = newLoadExecutor();
+			return this.loadExecutor;
+		}
+	}
+
+	/**
+	 * Sets the number of background threads used by
+	 * {@link #getDataAsync(UUID)}. Must be called before the first
+	 * asynchronous load.
+	 *
+	 * @param loadThreads Number of threads
+	 */
+	public void setLoadThreads(int loadThreads)
+	{
+		Validate.isTrue(loadThreads > 0, "loadThreads must be positive!");
+		Validate.isTrue(loadExecutor == null, "the load executor has already started!");
+		this.loadThreads = loadThreads;
+	}
+
+	/**
+	 * Creates the executor used by {@link #getDataAsync(UUID)}. Its queue is
+	 * unbounded so that a burst of requests never loads on the calling
+	 * thread, which is usually the main thread.
+	 */
+	private ThreadPoolExecutor newLoadExecutor()
+	{
+		AtomicInteger threadId = new AtomicInteger();
+		ThreadFactory factory = runnable ->
+		{
+			Thread thread = new Thread(runnable, plugin.getName() + "-DataLoad-" + threadId.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+
+		return new ThreadPoolExecutor(loadThreads, loadThreads, 0L, TimeUnit.MILLISECONDS,
+			new LinkedBlockingQueue<>(), factory);
+	}
+
+	/**
+	 * Creates a bounded executor with daemon threads. Tasks that do not fit in
+	 * the queue, or are submitted after shutdown, run on the submitting
+	 * thread.
+	 */
+	private ThreadPoolExecutor newExecutor(String name, int threads, int queueSize)
+	{
+		AtomicInteger threadId = new AtomicInteger();
+		ThreadFactory factory = runnable ->
+		{
+			Thread thread = new Thread(runnable, plugin.getName() + "-" + name + "-" + threadId.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+
+		return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<>(queueSize), factory, (task, pool) -> task.run());
+	}
+
 	public abstract void saveData(UUID key, T value) throws IOException;
 
+	/**
+	 * Serializes an entry into the form this cache stores it in. This runs on
+	 * the thread that owns the data. The result is compared with the last
+	 * save to find unsaved changes, and is then handed to
+	 * {@link #saveSnapshot(UUID, byte[])}, so it must capture everything the
+	 * storage persists. Entries for which this returns null are written on
+	 * every save. The default implementation uses the binary format of
+	 * {@link AbstractPlayerData#serialize()}.
+	 *
+	 * @param value Entry to serialize
+	 * @return The serialized entry, or null if it cannot be serialized
+	 * @throws IOException If the entry cannot be serialized
+	 */
+	protected byte[] toSnapshot(T value) throws IOException
+	{
+		return BinarySerialization.toBytes(value.serialize());
+	}
+
+	/**
+	 * Creates an entry from a snapshot produced by
+	 * {@link #toSnapshot(AbstractPlayerData)}. The default implementation
+	 * decodes the binary format and passes the values to
+	 * {@link #fromSerialized(Map)}.
+	 *
+	 * @param snapshot Serialized data
+	 * @return The deserialized data, or null if not supported
+	 * @throws IOException If the snapshot cannot be decoded
+	 */
+	protected T fromSnapshot(byte[] snapshot) throws IOException
+	{
+		return fromSerialized(BinarySerialization.fromBytes(snapshot));
+	}
+
+	/**
+	 * Writes a snapshot of an entry, as produced by
+	 * {@link #toSnapshot(AbstractPlayerData)}. Snapshots are taken on the
+	 * thread that owns the data, so this can safely run on another thread.
+	 * The default implementation rebuilds the entry with
+	 * {@link #fromSnapshot(byte[])} and passes it to
+	 * {@link #saveData(UUID, AbstractPlayerData)}.
+	 *
+	 * @param key Player's unique id
+	 * @param snapshot Serialized data
+	 * @throws IOException If the snapshot cannot be written
+	 */
+	protected void saveSnapshot(UUID key, byte[] snapshot) throws IOException
+	{
+		T data = fromSnapshot(snapshot);
+		if (data == null)
+			throw new UnsupportedOperationException(getClass().getName() + " does not implement fromSerialized");
+
+		data.id = key;
+		saveData(key, data);
+	}
+
+	/**
+	 * Writes a batch of snapshots. The default implementation writes each one
+	 * with {@link #saveSnapshot(UUID, byte[])}. Failed entries are logged and
+	 * left out of the result, so they stay dirty and are retried by the next
+	 * save.
+	 *
+	 * @param snapshots Serialized data by player
+	 * @return The unique ids of the entries that were written
+	 */
+	protected Set<UUID> saveBatch(Map<UUID, byte[]> snapshots)
+	{
+		Set<UUID> saved = new HashSet<>();
+		for (Map.Entry<UUID, byte[]> entry : snapshots.entrySet())
+		{
+			long start = System.nanoTime();
+
+			try
+			{
+				saveSnapshot(entry.getKey(), entry.getValue());
+				saved.add(entry.getKey());
+			}
+			catch (Throwable ex)
+			{
+				plugin.getLogHandler().log(Level.WARNING, Util.getUsefulStack(ex, "saving data for {0}", entry.getKey()));
+			}
+			finally
+			{
+				metrics.recordSave(System.nanoTime() - start);
+			}
+		}
+
+		return saved;
+	}
+
+	/**
+	 * Whether this cache can write snapshots without the entry they were taken
+	 * from, which requires {@link #saveBatch(Map)},
+	 * {@link #saveSnapshot(UUID, byte[])}, {@link #fromSnapshot(byte[])} or
+	 * {@link #fromSerialized(Map)} to be overridden.
+	 */
+	boolean writesSnapshots()
+	{
+		return writesSnapshots;
+	}
+
+	/**
+	 * Checks whether a subclass declares a method with any of the given names.
+	 */
+	private boolean overrides(String... names)
+	{
+		Set<String> methods = Set.of(names);
+		for (Class<?> clazz = getClass(); clazz != AbstractDataCache.class; clazz = clazz.getSuperclass())
+		{
+			for (Method method : clazz.getDeclaredMethods())
+			{
+				if (methods.contains(method.getName()))
+					return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Called after a batch of entries has been written, for example to force
+	 * the directories they were written to to disk.
+	 */
+	void syncSaved(Collection<UUID> keys)
+	{
+		// no-op
+	}
+
 	@Override
 	public void save()
 	{
 		long start = System.currentTimeMillis();
 		plugin.getLogHandler().log("Saving player data...");
 
-		for (Map.Entry<UUID, T> entry : cache.entrySet())
+		DataJournal journal = this.journal;
+		long generation = rotateJournal(journal);
+		saveUnreplayed();
+
+		int failures = saveNow(snapshotChanged(cache.entrySet()));
+		commitJournal(journal, generation, failures);
+
+		long elapsed = System.currentTimeMillis() - start;
+		metrics.recordFullSave(elapsed);
+		plugin.getLogHandler().log("Players saved. Took {0} ms.", elapsed);
+	}
+
+	/**
+	 * An entry with unsaved changes, the snapshot they were found in, and the
+	 * last journal sequence number appended before the snapshot.
+	 */
+	private record PendingSave<D extends AbstractPlayerData>(UUID key, D value, AbstractPlayerData.Snapshot snapshot,
+															 long journalSequence) { }
+
+	/**
+	 * Snapshots entries on the calling thread, keeping those with unsaved
+	 * changes.
+	 */
+	private List<PendingSave<T>> snapshotChanged(Collection<Map.Entry<UUID, T>> entries)
+	{
+		long sequence = journalSequence();
+
+		List<PendingSave<T>> pending = new ArrayList<>();
+		for (Map.Entry<UUID, T> entry : entries)
+		{
+			T value = entry.getValue();
+			AbstractPlayerData.Snapshot snapshot = value.snapshot(snapshotFormat);
+			if (!value.isSaved(snapshot))
+				pending.add(new PendingSave<>(entry.getKey(), value, snapshot, sequence));
+		}
+
+		return pending;
+	}
+
+	/**
+	 * Writes entries on the calling thread. Entries with a snapshot are
+	 * written together with {@link #saveBatch(Map)}, the rest one at a time.
+	 * Write-behind batches still holding older snapshots of these entries are
+	 * waited for first, so they cannot overwrite the newer data.
+	 *
+	 * @return The number of entries that failed to save
+	 */
+	private int saveNow(List<PendingSave<T>> pending)
+	{
+		awaitWriting(pending);
+
+		List<PendingSave<T>> detached = new ArrayList<>();
+		List<PendingSave<T>> attached = new ArrayList<>();
+		for (PendingSave<T> save : pending)
+			(isDetached(save) ? detached : attached).add(save);
+
+		int failed = saveAttached(attached);
+		if (!detached.isEmpty())
+			failed += saveDetached(detached);
+		return failed;
+	}
+
+	private void awaitWriting(List<PendingSave<T>> pending)
+	{
+		for (CompletableFuture<Integer> batch : writingBatches(pending))
+			batch.exceptionally(ex -> 0).join();
+	}
+
+	/**
+	 * Gets the write-behind batches still writing any of the given entries.
+	 */
+	private Set<CompletableFuture<Integer>> writingBatches(List<PendingSave<T>> pending)
+	{
+		if (writing.isEmpty())
+		{
+			return Set.of();
+		}
+
+		Set<CompletableFuture<Integer>> batches = new HashSet<>();
+		for (PendingSave<T> save : pending)
+		{
+			CompletableFuture<Integer> batch = writing.get(save.key());
+			if (batch != null)
+				batches.add(batch);
+		}
+
+		return batches;
+	}
+
+	/**
+	 * Whether an entry can be written from its snapshot alone.
+	 */
+	private boolean isDetached(PendingSave<T> save)
+	{
+		return writesSnapshots && save.snapshot().bytes() != null;
+	}
+
+	/**
+	 * Writes entries one at a time with
+	 * {@link #saveData(UUID, AbstractPlayerData)} on the calling thread.
+	 *
+	 * @return The number of entries that failed to save
+	 */
+	private int saveAttached(List<PendingSave<T>> pending)
+	{
+		int failed = 0;
+		List<UUID> saved = new ArrayList<>(pending.size());
+
+		for (PendingSave<T> save : pending)
 		{
+			long start = System.nanoTime();
+
 			try
 			{
-				saveData(entry.getKey(), entry.getValue());
+				saveData(save.key(), save.value());
+				onSaved(save);
+				saved.add(save.key());
 			}
 			catch (Throwable ex)
 			{
-				plugin.getLogHandler().log(Level.WARNING, Util.getUsefulStack(ex, "saving data for {0}", entry.getKey()));
+				failed++;
+				plugin.getLogHandler().log(Level.WARNING, Util.getUsefulStack(ex, "saving data for {0}", save.key()));
+			}
+			finally
+			{
+				metrics.recordSave(System.nanoTime() - start);
+			}
+		}
+
+		if (!saved.isEmpty())
+			syncSaved(saved);
+		return failed;
+	}
+
+	/**
+	 * Writes the snapshots of a batch of entries with {@link #saveBatch(Map)}.
+	 *
+	 * @return The number of entries that failed to save
+	 */
+	private int saveDetached(List<PendingSave<T>> batch)
+	{
+		Map<UUID, byte[]> snapshots = new LinkedHashMap<>();
+		for (PendingSave<T> save : batch)
+			snapshots.put(save.key(), save.snapshot().bytes());
+
+		Set<UUID> saved;
+
+		try
+		{
+			saved = saveBatch(snapshots);
+		}
+		catch (Throwable ex)
+		{
+			plugin.getLogHandler().log(Level.WARNING, Util.getUsefulStack(ex, "saving a batch of {0}", batch.size()));
+			saved = Set.of();
+		}
+
+		int failed = 0;
+		for (PendingSave<T> save : batch)
+		{
+			if (saved.contains(save.key()))
+				onSaved(save);
+			else
+				failed++;
+		}
+
+		if (!saved.isEmpty())
+			syncSaved(saved);
+		return failed;
+	}
+
+	private void onSaved(PendingSave<T> save)
+	{
+		// Changes made after the snapshot are still unsaved
+		save.value().markSaved(save.snapshot());
+
+		// Journaled snapshots up to this one must not be replayed over it
+		DataJournal journal = this.journal;
+		if (journal != null && save.journalSequence() >= 0)
+		{
+			try
+			{
+				journal.appendSaved(save.key(), save.journalSequence());
+			}
+			catch (IOException ex)
+			{
+				plugin.getLogHandler().log(Level.WARNING, Util.getUsefulStack(ex, "journaling data for {0}", save.key()));
+			}
+		}
+	}
+
+	@Override
+	public CacheMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	// ---- Write-behind
+
+	/**
+	 * Marks a cached entry as changed so that the next save persists it. If
+	 * the journal is enabled, a snapshot of the entry is also appended to it.
+	 *
+	 * @param key Player's unique id
+	 * @see AbstractPlayerData#markDirty()
+	 */
+	public void markDirty(UUID key)
+	{
+		Validate.notNull(key, "key cannot be null!");
+
+		T data = cache.get(key);
+		if (data == null)
+		{
+			return;
+		}
+
+		data.markDirty();
+
+		DataJournal journal = this.journal;
+		if (journal != null)
+		{
+			try
+			{
+				byte[] snapshot = toSnapshot(data);
+				if (snapshot != null)
+					journal.append(key, snapshot);
+			}
+			catch (Throwable ex)
+			{
+				plugin.getLogHandler().log(Level.WARNING, Util.getUsefulStack(ex, "journaling data for {0}", key));
+			}
+		}
+	}
+
+	// ---- Journal
+
+	/**
+	 * @return The journal's last sequence number, or -1 if it is disabled
+	 */
+	private long journalSequence()
+	{
+		DataJournal journal = this.journal;
+		return journal != null ? journal.getSequence() : -1;
+	}
+
+	/**
+	 * Rotates the journal before a full pass over the cache.
+	 *
+	 * @return The generation to commit afterwards, or -1 if not rotated
+	 */
+	private long rotateJournal(DataJournal journal)
+	{
+		if (journal == null)
+		{
+			return -1;
+		}
+
+		try
+		{
+			return journal.rotate();
+		}
+		catch (IOException ex)
+		{
+			plugin.getLogHandler().log(Level.WARNING, Util.getUsefulStack(ex, "rotating the data journal"));
+			return -1;
+		}
+	}
+
+	private void commitJournal(DataJournal journal, long generation, int failures)
+	{
+		// Keep the rotated records until every entry has been written
+		if (journal != null && generation >= 0 && failures == 0 && unreplayed.isEmpty())
+			journal.commit(generation);
+	}
+
+	/**
+	 * Retries journaled snapshots that failed to replay. Until they are
+	 * written, the journal is not cleared.
+	 */
+	private void saveUnreplayed()
+	{
+		if (unreplayed.isEmpty())
+		{
+			return;
+		}
+
+		Map<UUID, byte[]> snapshots = new HashMap<>(unreplayed);
+		for (UUID key : saveBatch(snapshots))
+			unreplayed.remove(key, snapshots.get(key));
+	}
+
+	/**
+	 * Enables a write-ahead journal. Each call to {@link #markDirty(UUID)}
+	 * appends a snapshot of the entry, so changes made between full saves
+	 * survive a crash. Every save appends a marker so that older snapshots
+	 * are not replayed over newer data, and the journal is cleared after each
+	 * successful {@link #save()} or {@link #flush()}.
+	 * <p>
+	 * Records left over from a previous run are replayed first: the latest
+	 * snapshot of each player is written straight to storage with
+	 * {@link #saveBatch(Map)}. Snapshots that fail to write are retried by
+	 * each save, and players loaded in the meantime start from them; the
+	 * journal is not cleared until they are written. This should be called
+	 * while enabling the plugin, before any data is loaded. Requires
+	 * {@link #fromSerialized(Map)} to be implemented, unless this cache writes
+	 * snapshots by other means.
+	 *
+	 * @param file Journal file
+	 * @param fsync When to force records to disk. {@link FsyncPolicy#BATCHED}
+	 *        forces them in groups every <code>groupInterval</code>
+	 * @param groupInterval Interval between group syncs in milliseconds
+	 * @return The number of entries replayed
+	 * @throws IOException If the journal cannot be opened or replayed
+	 * @throws IllegalArgumentException If this cache cannot write snapshots
+	 */
+	public synchronized int enableJournal(File file, FsyncPolicy fsync, long groupInterval) throws IOException
+	{
+		Validate.isTrue(journal == null, "the journal is already enabled!");
+		Validate.isTrue(writesSnapshots, getClass().getName() + " must implement fromSerialized to replay a journal!");
+
+		DataJournal journal = new DataJournal(file, fsync, groupInterval);
+
+		try
+		{
+			int replayed = replay(journal);
+			if (replayed > 0)
+				plugin.getLogHandler().log("Replayed {0} player data changes from {1}.", replayed, file.getName());
+
+			this.journal = journal;
+			return replayed;
+		}
+		catch (Throwable ex)
+		{
+			journal.close();
+			throw ex;
+		}
+	}
+
+	private int replay(DataJournal journal) throws IOException
+	{
+		Map<UUID, byte[]> changes = journal.replay();
+		if (changes.isEmpty())
+		{
+			return 0;
+		}
+
+		Set<UUID> saved = saveBatch(changes);
+		if (saved.size() == changes.size())
+		{
+			journal.truncate();
+			return saved.size();
+		}
+
+		// Kept until a later save writes them, or the player is loaded
+		for (Map.Entry<UUID, byte[]> entry : changes.entrySet())
+		{
+			if (!saved.contains(entry.getKey()))
+				unreplayed.put(entry.getKey(), entry.getValue());
+		}
+
+		plugin.getLogHandler().log(Level.WARNING, "Failed to replay {0} player data changes. They will be retried on the next save.",
+			unreplayed.size());
+		return saved.size();
+	}
+
+	/**
+	 * Closes the journal, if enabled. Records that have not been cleared by a
+	 * full save are kept for the next replay.
+	 */
+	public synchronized void disableJournal()
+	{
+		DataJournal journal = this.journal;
+		if (journal == null)
+		{
+			return;
+		}
+
+		this.journal = null;
+
+		try
+		{
+			journal.close();
+		}
+		catch (IOException ex)
+		{
+			plugin.getLogHandler().log(Level.WARNING, Util.getUsefulStack(ex, "closing the data journal"));
+		}
+	}
+
+	public boolean isJournaling()
+	{
+		return journal != null;
+	}
+
+	/**
+	 * Enables write-behind saving. Changed entries are serialized on the
+	 * thread calling {@link #flush()}, and only the serialized snapshots are
+	 * handed to a single background thread in batches of up to
+	 * <code>batchSize</code>, so the data can keep changing while it is
+	 * written. At most <code>maxQueuedBatches</code> batches may wait in the
+	 * queue; once it is full (or the thread has been shut down), the thread
+	 * calling {@link #flush()} saves the batch itself.
+	 * <p>
+	 * Snapshots are written with {@link #saveSnapshot(UUID, byte[])}, which
+	 * by default requires {@link #fromSerialized(Map)} to be implemented.
+	 *
+	 * @param batchSize Maximum entries per batch
+	 * @param maxQueuedBatches Maximum batches waiting to be saved
+	 * @throws IllegalArgumentException If this cache cannot write snapshots
+	 */
+	public synchronized void enableWriteBehind(int batchSize, int maxQueuedBatches)
+	{
+		Validate.isTrue(batchSize > 0, "batchSize must be positive!");
+		Validate.isTrue(maxQueuedBatches > 0, "maxQueuedBatches must be positive!");
+		Validate.isTrue(saveExecutor == null, "write-behind is already enabled!");
+		Validate.isTrue(writesSnapshots, getClass().getName() + " must implement fromSerialized to save in the background!");
+
+		this.saveBatchSize = batchSize;
+		this.shutdown = false;
+		this.saveExecutor = newExecutor("DataSave", 1, maxQueuedBatches);
+	}
+
+	/**
+	 * @return Whether write-behind saving is enabled
+	 */
+	public boolean isWriteBehind()
+	{
+		return saveExecutor != null && !shutdown;
+	}
+
+	/**
+	 * Saves every entry with unsaved changes. Entries are serialized on the
+	 * calling thread; if write-behind is enabled, the serialized snapshots are
+	 * then saved in batches on the background thread, otherwise the entries
+	 * are saved synchronously on the calling thread.
+	 *
+	 * @return A future completing once every changed entry has been saved
+	 */
+	public CompletableFuture<Void> flush()
+	{
+		DataJournal journal = this.journal;
+		long generation = rotateJournal(journal);
+		saveUnreplayed();
+
+		List<PendingSave<T>> pending = snapshotChanged(cache.entrySet());
+		ThreadPoolExecutor executor = this.saveExecutor;
+		if (pending.isEmpty() || executor == null || shutdown)
+		{
+			commitJournal(journal, generation, saveNow(pending));
+			return CompletableFuture.completedFuture(null);
+		}
+
+		return saveBehind(pending, executor).thenAccept(failed -> commitJournal(journal, generation, failed));
+	}
+
+	/**
+	 * Hands snapshots to the write-behind thread in batches. Entries that
+	 * could not be serialized in the binary format are saved on the calling
+	 * thread instead.
+	 *
+	 * @return A future completing with the number of entries that failed
+	 */
+	private CompletableFuture<Integer> saveBehind(List<PendingSave<T>> pending, Executor executor)
+	{
+		List<PendingSave<T>> attached = new ArrayList<>();
+		List<CompletableFuture<Integer>> futures = new ArrayList<>();
+		List<PendingSave<T>> batch = new ArrayList<>(saveBatchSize);
+
+		for (PendingSave<T> save : pending)
+		{
+			if (!isDetached(save))
+			{
+				attached.add(save);
+				continue;
+			}
+
+			batch.add(save);
+			if (batch.size() >= saveBatchSize)
+			{
+				futures.add(submit(batch, executor));
+				batch = new ArrayList<>(saveBatchSize);
+			}
+		}
+
+		if (!batch.isEmpty())
+			futures.add(submit(batch, executor));
+
+		int failed = saveNow(attached);
+
+		CompletableFuture<Integer> result = CompletableFuture.completedFuture(failed);
+		for (CompletableFuture<Integer> future : futures)
+			result = result.thenCombine(future, Integer::sum);
+		return result;
+	}
+
+	/**
+	 * Hands a batch to the write-behind thread, tracking its entries until it
+	 * has been written.
+	 */
+	private CompletableFuture<Integer> submit(List<PendingSave<T>> batch, Executor executor)
+	{
+		Set<CompletableFuture<Integer>> older = writingBatches(batch);
+
+		// Older batches of the same entries must be written first. The
+		// writer thread runs batches in order, but a full queue runs them on
+		// the calling thread instead.
+		CompletableFuture<Integer> future = older.isEmpty()
+			? CompletableFuture.supplyAsync(() -> saveDetached(batch), executor)
+			: CompletableFuture.allOf(older.toArray(new CompletableFuture[0]))
+				.exceptionally(ex -> null)
+				.thenApplyAsync(v -> saveDetached(batch), executor);
+		for (PendingSave<T> save : batch)
+			writing.put(save.key(), future);
+
+		future.whenComplete((failed, ex) ->
+		{
+			for (PendingSave<T> save : batch)
+				writing.remove(save.key(), future);
+		});
+		return future;
+	}
+
+	/**
+	 * Flushes any changed entries and stops the background load and
+	 * write-behind threads. Once the returned future completes, every changed
+	 * entry and queued batch has been written. The synchronous
+	 * {@link #save()} remains usable afterwards.
+	 *
+	 * @return A future completing once every entry has been flushed
+	 */
+	public synchronized CompletableFuture<Void> shutdown()
+	{
+		if (loadExecutor != null)
+		{
+			loadExecutor.shutdown();
+			loadExecutor = null;
+		}
+
+		// Nothing can rehydrate this cache's entries anymore
+		OffHeapDataTier tier = this.offHeapTier;
+		if (tier != null)
+			tier.invalidateAll(tierNamespace);
+
+		ThreadPoolExecutor executor = this.saveExecutor;
+		CompletableFuture<Void> flushed = flush();
+		if (executor == null)
+			return flushed;
+
+		this.shutdown = true;
+		this.saveExecutor = null;
+		executor.shutdown();
+
+		return flushed.thenRunAsync(() ->
+		{
+			try
+			{
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+			}
+		});
+	}
+
+	// ---- Eviction
+
+	/**
+	 * Sets the policy used to evict entries from this cache.
+	 *
+	 * @param policy New policy
+	 * @see #evict()
+	 */
+	public void setCachePolicy(CachePolicy policy)
+	{
+		Validate.notNull(policy, "policy cannot be null!");
+		this.policy = policy;
+
+		if (!policy.isBounded())
+			lastAccess.clear();
+	}
+
+	public CachePolicy getCachePolicy()
+	{
+		return policy;
+	}
+
+	private void touch(UUID key)
+	{
+		if (policy.isBounded())
+			lastAccess.put(key, System.currentTimeMillis());
+	}
+
+	private void onInsert(UUID key)
+	{
+		touch(key);
+
+		int maxEntries = policy.getMaxEntries();
+		if (maxEntries <= 0 || cache.size() <= maxEntries)
+		{
+			return;
+		}
+
+		// Evicting saves and reads live data, so it belongs on the main thread
+		if (plugin.getServer().isPrimaryThread())
+		{
+			evict();
+		}
+		else if (plugin.isEnabled() && evictScheduled.compareAndSet(false, true))
+		{
+			try
+			{
+				plugin.getServer().getScheduler().runTask(plugin, () ->
+				{
+					evictScheduled.set(false);
+					evict();
+				});
+			}
+			catch (IllegalPluginAccessException ex)
+			{
+				// The plugin was disabled in the meantime
+				evictScheduled.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Evicts entries according to the current {@link CachePolicy}. Expired
+	 * entries are evicted first; if the cache is still over its limit, the
+	 * least recently accessed entries are evicted until it is 10% below the
+	 * limit. This runs automatically when the limit is exceeded, on the main
+	 * thread, but expiration requires calling it periodically. It must be
+	 * called on the main thread, since entries are saved as they are evicted.
+	 *
+	 * @return The number of entries evicted
+	 */
+	public int evict()
+	{
+		CachePolicy policy = this.policy;
+		if (!policy.isBounded())
+		{
+			return 0;
+		}
+
+		long now = System.currentTimeMillis();
+		long expireAfter = policy.getExpireAfterAccess();
+		int evicted = 0;
+
+		List<Map.Entry<UUID, Long>> candidates = new ArrayList<>();
+		for (UUID key : cache.keySet())
+		{
+			if (policy.isPinOnline() && plugin.getServer().getPlayer(key) != null)
+				continue;
+
+			long accessed = lastAccess.computeIfAbsent(key, k -> now);
+			if (expireAfter > 0 && now - accessed >= expireAfter)
+			{
+				if (evict(key))
+					evicted++;
+			}
+			else
+			{
+				candidates.add(Map.entry(key, accessed));
+			}
+		}
+
+		int maxEntries = policy.getMaxEntries();
+		if (maxEntries > 0 && cache.size() > maxEntries)
+		{
+			int target = maxEntries - maxEntries / 10;
+			candidates.sort(Map.Entry.comparingByValue());
+
+			for (Map.Entry<UUID, Long> candidate : candidates)
+			{
+				if (cache.size() <= target)
+					break;
+
+				if (evict(candidate.getKey()))
+					evicted++;
 			}
 		}
 
-		plugin.getLogHandler().log("Players saved. Took {0} ms.", System.currentTimeMillis() - start);
+		return evicted;
+	}
+
+	/**
+	 * Removes a single entry from the cache, first saving it if it has unsaved
+	 * changes. Entries that fail to save, or that are still being written by
+	 * the write-behind thread, are kept. This must be called on the main
+	 * thread, so that the entry cannot change while it is saved.
+	 *
+	 * @param key Player's unique id
+	 * @return True if the entry was evicted, false if not
+	 */
+	public boolean evict(UUID key)
+	{
+		T data = cache.get(key);
+		if (data == null)
+		{
+			lastAccess.remove(key);
+			return false;
+		}
+
+		if (writing.containsKey(key))
+		{
+			return false;
+		}
+
+		long sequence = journalSequence();
+		AbstractPlayerData.Snapshot snapshot = data.snapshot(snapshotFormat);
+		if (!data.isSaved(snapshot) && saveNow(List.of(new PendingSave<>(key, data, snapshot, sequence))) > 0)
+		{
+			return false;
+		}
+
+		lastAccess.remove(key);
+		if (!cache.remove(key, data))
+		{
+			return false;
+		}
+
+		OffHeapDataTier tier = this.offHeapTier;
+		if (tier != null && snapshot.bytes() != null)
+			tier.put(tierNamespace, key, snapshot.bytes());
+		return true;
+	}
+
+	// ---- Off-heap tier
+
+	/**
+	 * Sets a second-level tier that keeps evicted entries off-heap, so that
+	 * they can be rehydrated without calling
+	 * {@link #loadData(OfflinePlayer)}. Entries are stored as the snapshots
+	 * taken when they were evicted. Requires {@link #fromSerialized(Map)} or
+	 * {@link #fromSnapshot(byte[])} to be implemented. A tier may be shared
+	 * with other caches; this cache only ever touches its own entries.
+	 *
+	 * @param tier New tier, or null to disable it
+	 */
+	public void setOffHeapTier(OffHeapDataTier tier)
+	{
+		OffHeapDataTier previous = this.offHeapTier;
+		this.offHeapTier = tier;
+		if (previous != null && previous != tier)
+			previous.invalidateAll(tierNamespace);
+	}
+
+	public OffHeapDataTier getOffHeapTier()
+	{
+		return offHeapTier;
+	}
+
+	/**
+	 * Drops an entry this cache stored in its off-heap tier, if any.
+	 */
+	void invalidateOffHeap(UUID key)
+	{
+		OffHeapDataTier tier = this.offHeapTier;
+		if (tier != null)
+			tier.invalidate(tierNamespace, key);
+	}
+
+	/**
+	 * Creates an entry from its serialized form, as produced by
+	 * {@link AbstractPlayerData#serialize()}. The default implementation
+	 * returns null, which disables write-behind saving, the journal and the
+	 * off-heap tier unless snapshots are handled by other means.
+	 *
+	 * @param values Serialized values
+	 * @return The deserialized data, or null if not supported
+	 */
+	protected T fromSerialized(Map<String, Object> values)
+	{
+		return null;
+	}
+
+	private T fromUnreplayed(UUID key, byte[] snapshot)
+	{
+		try
+		{
+			T data = fromSnapshot(snapshot);
+			if (data != null)
+				data.id = key;
+			return data;
+		}
+		catch (Throwable ex)
+		{
+			plugin.getLogHandler().log(Level.WARNING, Util.getUsefulStack(ex, "reading journaled data for {0}", key));
+			return null;
+		}
+	}
+
+	private T rehydrate(UUID key)
+	{
+		OffHeapDataTier tier = this.offHeapTier;
+		if (tier == null)
+		{
+			return null;
+		}
+
+		byte[] bytes = tier.take(tierNamespace, key);
+		if (bytes == null)
+		{
+			return null;
+		}
+
+		try
+		{
+			T data = fromSnapshot(bytes);
+			if (data != null)
+				data.id = key;
+			return data;
+		}
+		catch (Throwable ex)
+		{
+			plugin.getLogHandler().log(Level.WARNING, Util.getUsefulStack(ex, "rehydrating data for {0}", key));
+			return null;
+		}
 	}
 
 	@Override
 	public void purgeCache()
 	{
-		List<UUID> online = new ArrayList<>();
+		Set<UUID> online = new HashSet<>();
 		for (Player player : Bukkit.getOnlinePlayers())
 			online.add(player.getUniqueId());
 
-		cache.keySet().removeIf(key -> !online.contains(key));
-		online.clear();
+		for (UUID key : cache.keySet())
+		{
+			if (!online.contains(key))
+				evict(key);
+		}
 	}
 
 	@Override
@@ -101,4 +1351,29 @@ public abstract class AbstractDataCache<T extends AbstractPlayerData> implements
 	{
 		return Collections.unmodifiableMap(cache);
 	}
+
+	/**
+	 * Streams the entries held in storage, calling <code>onFailure</code> for
+	 * each one that cannot be read. Unlike {@link #streamAllData()}, caches
+	 * that can should return fresh copies rather than cached instances, so
+	 * that the entries can be read on another thread. The default
+	 * implementation returns {@link #streamAllData()}.
+	 */
+	Stream<T> streamStoredData(Runnable onFailure)
+	{
+		return streamAllData();
+	}
+
+	/**
+	 * Appends cached entries missing from a stream of stored entries, such as
+	 * players who have not been saved yet. Stored entries are visited first.
+	 */
+	Stream<T> withCacheOnly(Stream<T> stored)
+	{
+		Set<UUID> seen = ConcurrentHashMap.newKeySet();
+		Stream<T> cacheOnly = cache.entrySet().stream()
+			.filter(entry -> !seen.contains(entry.getKey()))
+			.map(Map.Entry::getValue);
+		return Stream.concat(stored.filter(data -> data.getId() == null || seen.add(data.getId())), cacheOnly);
+	}
 }
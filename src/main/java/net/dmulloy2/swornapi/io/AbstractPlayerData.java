@@ -1,9 +1,18 @@
 package net.dmulloy2.swornapi.io;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.bukkit.configuration.serialization.ConfigurationSerializable;
 import org.dizitart.no2.repository.annotations.Id;
@@ -14,6 +23,17 @@ public abstract class AbstractPlayerData implements ConfigurationSerializable
 	@Id
 	protected UUID id;
 
+	@Getter(AccessLevel.NONE)
+	@ToString.Exclude
+	@EqualsAndHashCode.Exclude
+	private final transient AtomicLong modCount = new AtomicLong();
+
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	@ToString.Exclude
+	@EqualsAndHashCode.Exclude
+	private transient volatile SaveState savedState;
+
 	public AbstractPlayerData() { }
 
 	public AbstractPlayerData(Map<String, Object> data)
@@ -26,4 +46,108 @@ public abstract class AbstractPlayerData implements ConfigurationSerializable
 	{
 		return FileSerialization.serialize(this);
 	}
+
+	public void setId(UUID id)
+	{
+		this.id = id;
+		markDirty();
+	}
+
+	/**
+	 * Marks this data as changed so that it is written on the next save.
+	 * Changes to serialized fields are also picked up by comparing their
+	 * contents with the last save, so this is only strictly required to force
+	 * a write.
+	 */
+	public void markDirty()
+	{
+		modCount.incrementAndGet();
+	}
+
+	/**
+	 * Whether this data has changed since it was last loaded or saved. Data
+	 * that has never been saved is always considered changed.
+	 *
+	 * @return True if this data needs to be saved, false if not
+	 */
+	public boolean hasUnsavedChanges()
+	{
+		SaveState saved = savedState;
+		return saved == null || !isSaved(snapshot(saved.format()));
+	}
+
+	/**
+	 * Serializes this data in a cache's storage format. The same snapshot is
+	 * used to tell whether the data changed and, if it did, to write it, so
+	 * each save serializes the data only once.
+	 */
+	Snapshot snapshot(SnapshotFormat format)
+	{
+		long modCount = this.modCount.get();
+
+		byte[] bytes;
+		try
+		{
+			bytes = format.toBytes(this);
+		}
+		catch (IOException | RuntimeException ex)
+		{
+			bytes = null;
+		}
+
+		// Data the format cannot hold is written every time
+		return bytes != null ? Snapshot.of(modCount, bytes, format) : new Snapshot(modCount, null, null, format);
+	}
+
+	boolean isSaved(Snapshot snapshot)
+	{
+		SaveState saved = savedState;
+		return saved != null && snapshot.digest() != null && saved.modCount() == snapshot.modCount()
+			&& MessageDigest.isEqual(saved.digest(), snapshot.digest());
+	}
+
+	void markSaved(Snapshot snapshot)
+	{
+		this.savedState = new SaveState(snapshot.modCount(), snapshot.digest(), snapshot.format());
+	}
+
+	void markClean(SnapshotFormat format)
+	{
+		markSaved(snapshot(format));
+	}
+
+	/**
+	 * Converts data into the form a cache stores it in. A format returns null
+	 * for data it cannot convert.
+	 */
+	@FunctionalInterface
+	interface SnapshotFormat
+	{
+		byte[] toBytes(AbstractPlayerData data) throws IOException;
+	}
+
+	/**
+	 * Serialized data at a point in time. The bytes are null if the data
+	 * cannot be written in the snapshot's format.
+	 */
+	record Snapshot(long modCount, byte[] bytes, byte[] digest, SnapshotFormat format)
+	{
+		static Snapshot of(long modCount, byte[] bytes, SnapshotFormat format)
+		{
+			try
+			{
+				return new Snapshot(modCount, bytes, MessageDigest.getInstance("SHA-256").digest(bytes), format);
+			}
+			catch (NoSuchAlgorithmException ex)
+			{
+				throw new IllegalStateException("SHA-256 is not available", ex);
+			}
+		}
+	}
+
+	/**
+	 * The modification count and SHA-256 digest of data at the time it was
+	 * written, and the format the digest was taken in.
+	 */
+	private record SaveState(long modCount, byte[] digest, SnapshotFormat format) { }
 }
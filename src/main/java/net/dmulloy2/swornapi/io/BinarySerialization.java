@@ -0,0 +1,369 @@
+package net.dmulloy2.swornapi.io;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+
+import net.dmulloy2.swornapi.util.Validate;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.serialization.ConfigurationSerializable;
+import org.bukkit.configuration.serialization.ConfigurationSerialization;
+
+/**
+ * Compact binary counterpart to the YAML methods in {@link FileSerialization}.
+ * Objects are written from the same field map produced by
+ * {@link ConfigurationSerializable#serialize()}.
+ * <p>
+ * The layout is a 4 byte magic number, a 2 byte schema version and a 4 byte
+ * payload length, followed by the payload. Every value in the payload is a
+ * 1 byte type tag followed by its data; strings, lists and maps are prefixed
+ * with their length. Nested {@link ConfigurationSerializable} objects are
+ * written as maps carrying their type alias, just like YAML does.
+ *
+ * @author dmulloy2
+ */
+
+public class BinarySerialization
+{
+	public static final int MAGIC = 0x53574442; // SWDB
+	public static final short SCHEMA_VERSION = 1;
+
+	private static final byte NULL = 0;
+	private static final byte STRING = 1;
+	private static final byte INT = 2;
+	private static final byte LONG = 3;
+	private static final byte DOUBLE = 4;
+	private static final byte FLOAT = 5;
+	private static final byte BOOLEAN = 6;
+	private static final byte SHORT = 7;
+	private static final byte BYTE = 8;
+	private static final byte LIST = 9;
+	private static final byte MAP = 10;
+	private static final byte UUID_TYPE = 11;
+
+	private BinarySerialization() { }
+
+	/**
+	 * Loads a previously serialized object from a given file.
+	 *
+	 * @param file File to load from
+	 * @param clazz Class the object should be of
+	 * @return The deserialized object, or null if the file does not exist
+	 * @throws IOException If the file cannot be read or is not valid
+	 * @see #save(ConfigurationSerializable, File)
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T extends ConfigurationSerializable> T load(File file, Class<T> clazz) throws IOException
+	{
+		Validate.notNull(file, "file cannot be null!");
+		Validate.notNull(clazz, "clazz cannot be null!");
+
+		if (! file.exists())
+			return null;
+
+		return (T) ConfigurationSerialization.deserializeObject(read(file), clazz);
+	}
+
+	/**
+	 * Saves a serializable object to a given file. The file is replaced
+	 * atomically, but not synced to disk.
+	 *
+	 * @param instance Object to serialize
+	 * @param file File to save to
+	 * @throws IOException If the file cannot be written to
+	 * @see #load(File, Class)
+	 */
+	public static void save(ConfigurationSerializable instance, File file) throws IOException
+	{
+		save(instance, file, FsyncPolicy.NEVER);
+	}
+
+	/**
+	 * Saves a serializable object to a given file. The file is replaced
+	 * atomically, so a crash mid-save leaves the previous contents intact.
+	 *
+	 * @param instance Object to serialize
+	 * @param file File to save to
+	 * @param fsync When to force the file to disk
+	 * @throws IOException If the file cannot be written to
+	 */
+	public static void save(ConfigurationSerializable instance, File file, FsyncPolicy fsync) throws IOException
+	{
+		Validate.notNull(instance, "instance cannot be null!");
+		Validate.notNull(file, "file cannot be null!");
+
+		write(instance.serialize(), file, fsync);
+	}
+
+	/**
+	 * Reads a field map from a given file.
+	 *
+	 * @param file File to read
+	 * @return The field map
+	 * @throws IOException If the file cannot be read or is not valid
+	 */
+	public static Map<String, Object> read(File file) throws IOException
+	{
+		return fromBytes(Files.readAllBytes(file.toPath()));
+	}
+
+	/**
+	 * Atomically writes a field map to a given file.
+	 *
+	 * @param data Field map
+	 * @param file File to write to
+	 * @param fsync When to force the file to disk
+	 * @throws IOException If the file cannot be written to
+	 */
+	public static void write(Map<String, Object> data, File file, FsyncPolicy fsync) throws IOException
+	{
+		IOUtil.writeAtomically(file, toBytes(data), fsync);
+	}
+
+	/**
+	 * Encodes a field map, including the header.
+	 *
+	 * @param data Field map
+	 * @return The encoded bytes
+	 * @throws IOException If a value cannot be encoded
+	 */
+	public static byte[] toBytes(Map<String, Object> data) throws IOException
+	{
+		Validate.notNull(data, "data cannot be null!");
+
+		ByteArrayOutputStream payload = new ByteArrayOutputStream(256);
+		writeMap(new DataOutputStream(payload), data);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.size() + 10);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeShort(SCHEMA_VERSION);
+		out.writeInt(payload.size());
+		payload.writeTo(out);
+
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes a field map, including the header.
+	 *
+	 * @param bytes Encoded bytes
+	 * @return The field map
+	 * @throws IOException If the bytes are not valid
+	 */
+	public static Map<String, Object> fromBytes(byte[] bytes) throws IOException
+	{
+		Validate.notNull(bytes, "bytes cannot be null!");
+
+		// Lengths are checked against the remaining bytes before allocating
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		if (in.readInt() != MAGIC)
+			throw new IOException("Not a binary data file");
+
+		short version = in.readShort();
+		if (version < 1 || version > SCHEMA_VERSION)
+			throw new IOException("Unsupported schema version " + version);
+
+		int length = in.readInt();
+		checkLength(in, length, 1);
+		if (in.readByte() != MAP)
+			throw new IOException("Payload is not a map");
+
+		try
+		{
+			return readMap(in);
+		}
+		catch (RuntimeException ex)
+		{
+			// For example a nested object that fails to deserialize
+			throw new IOException("Invalid payload", ex);
+		}
+	}
+
+	/**
+	 * Makes sure a length read from the input fits in the bytes that remain,
+	 * given the minimum size of each element.
+	 */
+	private static void checkLength(DataInputStream in, int length, int elementSize) throws IOException
+	{
+		if (length < 0 || (long) length * elementSize > in.available())
+			throw new IOException("Invalid length " + length + " with " + in.available() + " bytes remaining");
+	}
+
+	// ---- Encoding
+
+	private static void writeValue(DataOutputStream out, Object value) throws IOException
+	{
+		if (value == null)
+		{
+			out.writeByte(NULL);
+		}
+		else if (value instanceof String string)
+		{
+			out.writeByte(STRING);
+			writeString(out, string);
+		}
+		else if (value instanceof Integer i)
+		{
+			out.writeByte(INT);
+			out.writeInt(i);
+		}
+		else if (value instanceof Long l)
+		{
+			out.writeByte(LONG);
+			out.writeLong(l);
+		}
+		else if (value instanceof Double d)
+		{
+			out.writeByte(DOUBLE);
+			out.writeDouble(d);
+		}
+		else if (value instanceof Float f)
+		{
+			out.writeByte(FLOAT);
+			out.writeFloat(f);
+		}
+		else if (value instanceof Boolean b)
+		{
+			out.writeByte(BOOLEAN);
+			out.writeBoolean(b);
+		}
+		else if (value instanceof Short s)
+		{
+			out.writeByte(SHORT);
+			out.writeShort(s);
+		}
+		else if (value instanceof Byte b)
+		{
+			out.writeByte(BYTE);
+			out.writeByte(b);
+		}
+		else if (value instanceof UUID uuid)
+		{
+			out.writeByte(UUID_TYPE);
+			out.writeLong(uuid.getMostSignificantBits());
+			out.writeLong(uuid.getLeastSignificantBits());
+		}
+		else if (value instanceof Collection<?> collection)
+		{
+			out.writeByte(LIST);
+			out.writeInt(collection.size());
+			for (Object element : collection)
+				writeValue(out, element);
+		}
+		else if (value instanceof Map<?, ?> map)
+		{
+			writeMap(out, map);
+		}
+		else if (value instanceof ConfigurationSection section)
+		{
+			writeMap(out, section.getValues(false));
+		}
+		else if (value instanceof ConfigurationSerializable serializable)
+		{
+			Map<String, Object> map = new LinkedHashMap<>();
+			map.put(ConfigurationSerialization.SERIALIZED_TYPE_KEY, ConfigurationSerialization.getAlias(serializable.getClass()));
+			map.putAll(serializable.serialize());
+			writeMap(out, map);
+		}
+		else if (value instanceof Enum<?> e)
+		{
+			out.writeByte(STRING);
+			writeString(out, e.name().toLowerCase());
+		}
+		else
+		{
+			throw new IOException("Cannot serialize value of type " + value.getClass().getName());
+		}
+	}
+
+	private static void writeMap(DataOutputStream out, Map<?, ?> map) throws IOException
+	{
+		out.writeByte(MAP);
+		out.writeInt(map.size());
+		for (Entry<?, ?> entry : map.entrySet())
+		{
+			writeString(out, String.valueOf(entry.getKey()));
+			writeValue(out, entry.getValue());
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String string) throws IOException
+	{
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	// ---- Decoding
+
+	private static Object readValue(DataInputStream in) throws IOException
+	{
+		byte type = in.readByte();
+		return switch (type)
+		{
+			case NULL -> null;
+			case STRING -> readString(in);
+			case INT -> in.readInt();
+			case LONG -> in.readLong();
+			case DOUBLE -> in.readDouble();
+			case FLOAT -> in.readFloat();
+			case BOOLEAN -> in.readBoolean();
+			case SHORT -> in.readShort();
+			case BYTE -> in.readByte();
+			case UUID_TYPE -> new UUID(in.readLong(), in.readLong());
+			case LIST ->
+			{
+				int size = in.readInt();
+				checkLength(in, size, 1);
+
+				List<Object> list = new ArrayList<>(size);
+				for (int i = 0; i < size; i++)
+					list.add(readValue(in));
+				yield list;
+			}
+			case MAP ->
+			{
+				Map<String, Object> map = readMap(in);
+				if (map.containsKey(ConfigurationSerialization.SERIALIZED_TYPE_KEY))
+					yield ConfigurationSerialization.deserializeObject(map);
+				yield map;
+			}
+			default -> throw new IOException("Unknown type tag " + type);
+		};
+	}
+
+	private static Map<String, Object> readMap(DataInputStream in) throws IOException
+	{
+		// Each entry holds at least a key length and a type tag
+		int size = in.readInt();
+		checkLength(in, size, Integer.BYTES + 1);
+
+		Map<String, Object> map = new LinkedHashMap<>(Math.max(16, size * 2));
+		for (int i = 0; i < size; i++)
+		{
+			String key = readString(in);
+			map.put(key, readValue(in));
+		}
+
+		return map;
+	}
+
+	private static String readString(DataInputStream in) throws IOException
+	{
+		int length = in.readInt();
+		checkLength(in, length, 1);
+
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,204 @@
+package net.dmulloy2.swornapi.io;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Hit, miss and latency statistics for a player data cache. All counters are
+ * safe to update and read from any thread.
+ *
+ * @author dmulloy2
+ * @see IPlayerDataCache#getMetrics()
+ */
+
+public class CacheMetrics
+{
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	private final Histogram loadTimes = new Histogram();
+	private final Histogram saveTimes = new Histogram();
+
+	private final AtomicLong lastFullSave = new AtomicLong(-1);
+	private final IntSupplier entryCount;
+
+	public CacheMetrics(IntSupplier entryCount)
+	{
+		this.entryCount = entryCount;
+	}
+
+	public void recordHit()
+	{
+		hits.increment();
+	}
+
+	public void recordMiss()
+	{
+		misses.increment();
+	}
+
+	public void recordLoad(long nanos)
+	{
+		loadTimes.record(nanos);
+	}
+
+	public void recordSave(long nanos)
+	{
+		saveTimes.record(nanos);
+	}
+
+	public void recordFullSave(long millis)
+	{
+		lastFullSave.set(millis);
+	}
+
+	public long getHits()
+	{
+		return hits.sum();
+	}
+
+	public long getMisses()
+	{
+		return misses.sum();
+	}
+
+	/**
+	 * @return The fraction of lookups served from the cache, from 0 to 1
+	 */
+	public double getHitRate()
+	{
+		long hits = getHits();
+		long total = hits + getMisses();
+		return total == 0 ? 0.0D : (double) hits / total;
+	}
+
+	/**
+	 * @return Time taken by each {@link IPlayerDataCache#loadData} call
+	 */
+	public Histogram getLoadTimes()
+	{
+		return loadTimes;
+	}
+
+	/**
+	 * @return Time taken by each individual save. Entries skipped because
+	 *         they had not changed are not included
+	 */
+	public Histogram getSaveTimes()
+	{
+		return saveTimes;
+	}
+
+	/**
+	 * @return Duration of the last full save in milliseconds, or -1 if none
+	 *         has happened yet
+	 */
+	public long getLastFullSave()
+	{
+		return lastFullSave.get();
+	}
+
+	public int getEntryCount()
+	{
+		return entryCount.getAsInt();
+	}
+
+	/**
+	 * Resets every counter except the entry count.
+	 */
+	public void reset()
+	{
+		hits.reset();
+		misses.reset();
+		loadTimes.reset();
+		saveTimes.reset();
+		lastFullSave.set(-1);
+	}
+
+	/**
+	 * A lock-free latency histogram with power-of-two microsecond buckets.
+	 */
+	public static class Histogram
+	{
+		private static final int BUCKETS = 32;
+
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+		private final LongAdder count = new LongAdder();
+		private final LongAdder total = new LongAdder();
+		private final AtomicLong max = new AtomicLong();
+
+		void record(long nanos)
+		{
+			long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos));
+			int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+
+			buckets.incrementAndGet(bucket);
+			count.increment();
+			total.add(nanos);
+			max.accumulateAndGet(nanos, Math::max);
+		}
+
+		void reset()
+		{
+			for (int i = 0; i < BUCKETS; i++)
+				buckets.set(i, 0);
+			count.reset();
+			total.reset();
+			max.set(0);
+		}
+
+		public long getCount()
+		{
+			return count.sum();
+		}
+
+		/**
+		 * @return The mean latency in milliseconds
+		 */
+		public double getMean()
+		{
+			long count = getCount();
+			return count == 0 ? 0.0D : total.sum() / (count * 1_000_000.0D);
+		}
+
+		/**
+		 * @return The highest latency recorded in milliseconds
+		 */
+		public double getMax()
+		{
+			return max.get() / 1_000_000.0D;
+		}
+
+		/**
+		 * Estimates a percentile. The result is the upper bound of the bucket
+		 * the percentile falls in, so it may overestimate by up to 2x.
+		 *
+		 * @param percentile Percentile, from 0 to 100
+		 * @return The estimated latency in milliseconds
+		 */
+		public double getPercentile(double percentile)
+		{
+			long count = getCount();
+			if (count == 0)
+			{
+				return 0.0D;
+			}
+
+			long rank = (long) Math.ceil(count * Math.min(100.0D, percentile) / 100.0D);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++)
+			{
+				seen += buckets.get(i);
+				if (seen >= rank)
+				{
+					return Math.min((1L << i) / 1_000.0D, getMax());
+				}
+			}
+
+			return getMax();
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package net.dmulloy2.swornapi.io;
+
+import java.util.concurrent.TimeUnit;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+/**
+ * Controls which entries an {@link AbstractDataCache} evicts. By default
+ * nothing is evicted automatically.
+ *
+ * @author dmulloy2
+ * @see AbstractDataCache#setCachePolicy(CachePolicy)
+ */
+@Getter
+@Setter
+@Accessors(chain=true)
+public class CachePolicy
+{
+	/**
+	 * Maximum number of cached entries, or 0 for no limit. Pinned entries
+	 * count towards the limit but are never evicted.
+	 */
+	private int maxEntries = 0;
+
+	/**
+	 * Time in milliseconds after the last access before an entry expires, or
+	 * 0 to never expire.
+	 */
+	private long expireAfterAccess = 0;
+
+	/**
+	 * Whether entries belonging to online players are exempt from eviction.
+	 */
+	private boolean pinOnline = true;
+
+	public CachePolicy() { }
+
+	public CachePolicy setExpireAfterAccess(long duration, TimeUnit unit)
+	{
+		return setExpireAfterAccess(unit.toMillis(duration));
+	}
+
+	/**
+	 * @return Whether this policy ever evicts anything
+	 */
+	public boolean isBounded()
+	{
+		return maxEntries > 0 || expireAfterAccess > 0;
+	}
+}
@@ -0,0 +1,86 @@
+package net.dmulloy2.swornapi.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import lombok.Getter;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.configuration.serialization.ConfigurationSerializable;
+
+/**
+ * On-disk formats supported by {@link FileDataCache}. YAML is human-readable
+ * and convenient for debugging; binary is faster to parse and smaller.
+ *
+ * @author dmulloy2
+ */
+public enum DataFormat
+{
+	YAML(".yml")
+	{
+		@Override
+		public Map<String, Object> read(File file) throws IOException
+		{
+			try
+			{
+				YamlConfiguration config = new YamlConfiguration();
+				config.load(file);
+				return config.getValues(true);
+			}
+			catch (InvalidConfigurationException ex)
+			{
+				throw new IOException(ex);
+			}
+		}
+
+		@Override
+		public void write(ConfigurationSerializable instance, File file, FsyncPolicy fsync) throws IOException
+		{
+			FileSerialization.save(instance, file, fsync);
+		}
+	},
+	BINARY(".dat")
+	{
+		@Override
+		public Map<String, Object> read(File file) throws IOException
+		{
+			return BinarySerialization.read(file);
+		}
+
+		@Override
+		public void write(ConfigurationSerializable instance, File file, FsyncPolicy fsync) throws IOException
+		{
+			BinarySerialization.save(instance, file, fsync);
+		}
+	},
+	;
+
+	@Getter
+	private final String extension;
+
+	DataFormat(String extension)
+	{
+		this.extension = extension;
+	}
+
+	/**
+	 * Reads a field map from a given file.
+	 *
+	 * @param file File to read
+	 * @return The field map
+	 * @throws IOException If the file cannot be read or is not valid
+	 */
+	public abstract Map<String, Object> read(File file) throws IOException;
+
+	/**
+	 * Atomically writes an object to a given file.
+	 *
+	 * @param instance Object to write
+	 * @param file File to write to
+	 * @param fsync When to force the file to disk
+	 * @throws IOException If the file cannot be written to
+	 */
+	public abstract void write(ConfigurationSerializable instance, File file, FsyncPolicy fsync) throws IOException;
+}
@@ -0,0 +1,384 @@
+package net.dmulloy2.swornapi.io;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import net.dmulloy2.swornapi.util.Validate;
+
+/**
+ * An append-only journal of player data changes made between full saves.
+ * Each record holds a sequence number, a player's unique id and a snapshot of
+ * their data, as taken by the cache. Records end with a checksum, so a record
+ * torn by a crash is detected and ignored on replay.
+ * <p>
+ * Once data has been written to storage, a saved marker is appended with the
+ * last sequence number journaled before the data was snapshot. Snapshots up
+ * to that number are not replayed over the newer data in storage.
+ * <p>
+ * When a full save starts, the journal is rotated so that changes made during
+ * the save go to a fresh file. The rotated file is deleted once the save
+ * succeeds, and replayed along with the current file otherwise.
+ *
+ * @author dmulloy2
+ * @see AbstractDataCache#enableJournal(File, FsyncPolicy, long)
+ */
+
+public class DataJournal implements Closeable
+{
+	private static final int HEADER_SIZE = Integer.BYTES + 3 * Long.BYTES;
+
+	private final File file;
+	private final File rotated;
+	private final FsyncPolicy fsync;
+
+	private FileChannel channel;
+	private ScheduledExecutorService syncer;
+	private boolean unsynced;
+
+	private long sequence;
+	private long generation;
+
+	/**
+	 * Opens a journal, creating the file if it does not exist.
+	 *
+	 * @param file Journal file
+	 * @param fsync When to force appended records to disk
+	 * @param groupInterval Interval between forced writes in milliseconds,
+	 *        used if the policy is {@link FsyncPolicy#BATCHED}
+	 * @throws IOException If the file cannot be opened
+	 */
+	public DataJournal(File file, FsyncPolicy fsync, long groupInterval) throws IOException
+	{
+		Validate.notNull(file, "file cannot be null!");
+		Validate.notNull(fsync, "fsync cannot be null!");
+
+		this.file = file;
+		this.rotated = new File(file.getParentFile(), file.getName() + ".old");
+		this.fsync = fsync;
+
+		// Continue numbering after any records left from the last run, and
+		// cut off torn records so that new ones are not appended after them
+		for (File existing : new File[] { rotated, file })
+		{
+			long intact = read(existing, record -> sequence = Math.max(sequence, record.sequence()));
+			if (existing.length() > intact)
+			{
+				try (FileChannel channel = FileChannel.open(existing.toPath(), StandardOpenOption.WRITE))
+				{
+					channel.truncate(intact);
+				}
+			}
+		}
+
+		this.channel = open();
+
+		if (fsync == FsyncPolicy.BATCHED)
+		{
+			Validate.isTrue(groupInterval > 0, "groupInterval must be positive!");
+			this.syncer = Executors.newSingleThreadScheduledExecutor(runnable ->
+			{
+				Thread thread = new Thread(runnable, "DataJournal-" + file.getName());
+				thread.setDaemon(true);
+				return thread;
+			});
+			syncer.scheduleWithFixedDelay(this::syncQuietly, groupInterval, groupInterval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private FileChannel open() throws IOException
+	{
+		File parent = file.getParentFile();
+		if (parent != null && !parent.exists())
+			parent.mkdirs();
+
+		return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+			StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Appends a snapshot of a player's data.
+	 *
+	 * @param key Player's unique id
+	 * @param snapshot Serialized data, which cannot be empty
+	 * @return The sequence number of the record
+	 * @throws IOException If the record cannot be written
+	 */
+	public synchronized long append(UUID key, byte[] snapshot) throws IOException
+	{
+		Validate.notNull(snapshot, "snapshot cannot be null!");
+		Validate.isTrue(snapshot.length > 0, "snapshot cannot be empty!");
+
+		long next = sequence + 1;
+		write(next, key, snapshot);
+		sequence = next;
+		return next;
+	}
+
+	/**
+	 * Appends a record marking a player's data as written to storage, so that
+	 * snapshots up to a given sequence number are not replayed over it.
+	 *
+	 * @param key Player's unique id
+	 * @param sequence Value of {@link #getSequence()} before the written data
+	 *        was snapshot
+	 * @throws IOException If the record cannot be written
+	 */
+	public synchronized void appendSaved(UUID key, long sequence) throws IOException
+	{
+		write(sequence, key, new byte[0]);
+	}
+
+	/**
+	 * @return The sequence number of the last snapshot appended
+	 */
+	public synchronized long getSequence()
+	{
+		return sequence;
+	}
+
+	private void write(long sequence, UUID key, byte[] payload) throws IOException
+	{
+		Validate.notNull(key, "key cannot be null!");
+		Validate.isTrue(channel != null, "journal is closed!");
+
+		ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length + Integer.BYTES);
+		record.putInt(payload.length);
+		record.putLong(sequence);
+		record.putLong(key.getMostSignificantBits());
+		record.putLong(key.getLeastSignificantBits());
+		record.put(payload);
+
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), 0, record.position());
+		record.putInt((int) crc.getValue());
+		record.flip();
+
+		while (record.hasRemaining())
+			channel.write(record);
+
+		if (fsync == FsyncPolicy.ALWAYS)
+			channel.force(false);
+		else
+			unsynced = true;
+	}
+
+	/**
+	 * Forces every appended record to disk.
+	 *
+	 * @throws IOException If the journal cannot be synced
+	 */
+	public synchronized void sync() throws IOException
+	{
+		if (channel != null && unsynced)
+		{
+			channel.force(false);
+			unsynced = false;
+		}
+	}
+
+	private void syncQuietly()
+	{
+		try
+		{
+			sync();
+		}
+		catch (IOException ignored)
+		{
+			// Retried on the next interval
+		}
+	}
+
+	/**
+	 * Moves the current records aside before a full save. If a rotated file is
+	 * left over from a failed save, the current records are added to it.
+	 *
+	 * @return The generation to pass to {@link #commit(long)} once the save
+	 *         has succeeded
+	 * @throws IOException If the journal cannot be rotated
+	 */
+	public synchronized long rotate() throws IOException
+	{
+		Validate.isTrue(channel != null, "journal is closed!");
+
+		channel.force(false);
+		unsynced = false;
+
+		if (!rotated.exists())
+		{
+			channel.close();
+			IOUtil.moveAtomically(file.toPath(), rotated.toPath());
+			channel = open();
+			return ++generation;
+		}
+
+		try (FileChannel old = FileChannel.open(rotated.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			 FileChannel current = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			long size = current.size();
+			for (long position = 0; position < size; )
+				position += current.transferTo(position, size - position, old);
+			old.force(false);
+		}
+
+		channel.truncate(0);
+		channel.force(false);
+		return ++generation;
+	}
+
+	/**
+	 * Discards the records moved aside by {@link #rotate()} once the full save
+	 * they covered has succeeded. Nothing is discarded if the journal has been
+	 * rotated again since, as the rotated file then holds records the save did
+	 * not cover.
+	 *
+	 * @param generation Value returned by {@link #rotate()}
+	 */
+	public synchronized void commit(long generation)
+	{
+		if (this.generation == generation)
+			rotated.delete();
+	}
+
+	/**
+	 * Reads every intact record, the rotated file first. Later snapshots of
+	 * the same player replace earlier ones, and snapshots covered by a saved
+	 * marker are left out.
+	 *
+	 * @return Latest snapshot for each player with unsaved changes
+	 * @throws IOException If the journal cannot be read
+	 */
+	public synchronized Map<UUID, byte[]> replay() throws IOException
+	{
+		Map<UUID, Record> latest = new LinkedHashMap<>();
+		Map<UUID, Long> saved = new HashMap<>();
+
+		Consumer<Record> reader = record ->
+		{
+			if (record.payload().length == 0)
+			{
+				saved.merge(record.key(), record.sequence(), Math::max);
+				return;
+			}
+
+			latest.remove(record.key());
+			latest.put(record.key(), record);
+		};
+
+		read(rotated, reader);
+		read(file, reader);
+
+		Map<UUID, byte[]> result = new LinkedHashMap<>();
+		for (Record record : latest.values())
+		{
+			if (record.sequence() > saved.getOrDefault(record.key(), Long.MIN_VALUE))
+				result.put(record.key(), record.payload());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Reads the intact records of a given file.
+	 *
+	 * @return The length of the intact records
+	 */
+	private static long read(File file, Consumer<Record> reader) throws IOException
+	{
+		if (!file.exists())
+		{
+			return 0;
+		}
+
+		long intact = 0;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+		{
+			while (true)
+			{
+				int length = in.readInt();
+				if (length < 0 || length > in.available())
+				{
+					// Torn or corrupt record, nothing after it can be trusted
+					return intact;
+				}
+
+				long sequence = in.readLong();
+				UUID key = new UUID(in.readLong(), in.readLong());
+				byte[] payload = new byte[length];
+				in.readFully(payload);
+				int checksum = in.readInt();
+
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(length).putLong(sequence);
+				header.putLong(key.getMostSignificantBits()).putLong(key.getLeastSignificantBits());
+
+				CRC32 crc = new CRC32();
+				crc.update(header.array());
+				crc.update(payload);
+				if ((int) crc.getValue() != checksum)
+				{
+					return intact;
+				}
+
+				reader.accept(new Record(sequence, key, payload));
+				intact += HEADER_SIZE + length + Integer.BYTES;
+			}
+		}
+		catch (EOFException ex)
+		{
+			// End of the journal, possibly mid-record
+			return intact;
+		}
+	}
+
+	private record Record(long sequence, UUID key, byte[] payload) { }
+
+	/**
+	 * Deletes every record, including rotated ones.
+	 *
+	 * @throws IOException If the journal cannot be truncated
+	 */
+	public synchronized void truncate() throws IOException
+	{
+		Validate.isTrue(channel != null, "journal is closed!");
+
+		rotated.delete();
+		channel.truncate(0);
+		channel.force(false);
+		unsynced = false;
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		if (syncer != null)
+		{
+			syncer.shutdown();
+			syncer = null;
+		}
+
+		if (channel != null)
+		{
+			sync();
+			channel.close();
+			channel = null;
+		}
+	}
+}
@@ -0,0 +1,456 @@
+package net.dmulloy2.swornapi.io;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+
+import net.dmulloy2.swornapi.SwornPlugin;
+import net.dmulloy2.swornapi.util.Util;
+import net.dmulloy2.swornapi.util.Validate;
+
+/**
+ * Copies every player's data from one cache into another, for example from a
+ * {@link FileDataCache} into a {@link NitriteDataCache}. Entries loaded in
+ * the source cache, including those not saved yet, are snapshotted when the
+ * migration starts, on the calling thread. Everything else is streamed from
+ * the source's storage on a background thread and written to the target in
+ * parallel batches, so the server can keep running while data is migrated.
+ * Entries with fields that fail to serialize are counted as failed rather
+ * than copied in part.
+ * <p>
+ * If a checkpoint file is set, the id of every migrated entry is appended to
+ * it, and entries listed there are skipped when the migration is restarted.
+ * The checkpoint is deleted once a migration completes without failures.
+ *
+ * @author dmulloy2
+ */
+@Accessors(chain = true)
+public class DataMigration<T extends AbstractPlayerData>
+{
+	private final SwornPlugin plugin;
+	private final IPlayerDataCache<T> source;
+	private final AbstractDataCache<T> target;
+
+	@Getter @Setter
+	private int batchSize = 200;
+	@Getter @Setter
+	private int parallelism = 4;
+	@Getter @Setter
+	private File checkpointFile;
+	@Getter @Setter
+	private boolean verify = true;
+	@Setter
+	private Consumer<Progress> listener = progress -> { };
+
+	private final AtomicLong read = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	private volatile boolean cancelled;
+	private CompletableFuture<Result> future;
+
+	// Snapshots of the source's loaded entries, null for those that failed
+	private Map<UUID, byte[]> loaded;
+
+	public DataMigration(SwornPlugin plugin, IPlayerDataCache<T> source, AbstractDataCache<T> target)
+	{
+		Validate.notNull(plugin, "plugin cannot be null!");
+		Validate.notNull(source, "source cannot be null!");
+		Validate.notNull(target, "target cannot be null!");
+		Validate.isTrue(source != target, "source and target must differ!");
+		Validate.isTrue(target.writesSnapshots(), target.getClass().getName() + " cannot be migrated to!");
+
+		this.plugin = plugin;
+		this.source = source;
+		this.target = target;
+	}
+
+	/**
+	 * Starts the migration on a background thread. This must be called on the
+	 * thread that owns the source's loaded entries, usually the main thread.
+	 *
+	 * @return A future completed with the result of the migration
+	 * @throws IllegalStateException If the migration is already running
+	 */
+	public synchronized CompletableFuture<Result> start()
+	{
+		if (isRunning())
+			throw new IllegalStateException("migration is already running!");
+
+		Validate.isTrue(batchSize > 0, "batchSize must be positive!");
+		Validate.isTrue(parallelism > 0, "parallelism must be positive!");
+
+		read.set(0);
+		skipped.set(0);
+		written.set(0);
+		failed.set(0);
+		cancelled = false;
+
+		loaded = new HashMap<>();
+		boolean strict = FileSerialization.setStrict(true);
+
+		try
+		{
+			for (Map.Entry<UUID, T> entry : source.getAllLoadedData().entrySet())
+				loaded.put(entry.getKey(), snapshot(entry.getKey(), entry.getValue()));
+		}
+		finally
+		{
+			FileSerialization.setStrict(strict);
+		}
+
+		future = CompletableFuture.supplyAsync(this::run, task ->
+		{
+			Thread thread = new Thread(task, plugin.getName() + "-DataMigration");
+			thread.setDaemon(true);
+			thread.start();
+		});
+		return future;
+	}
+
+	/**
+	 * Stops the migration after the batches in progress have been written.
+	 * Progress is kept in the checkpoint file, if any.
+	 */
+	public void cancel()
+	{
+		this.cancelled = true;
+	}
+
+	public synchronized boolean isRunning()
+	{
+		return future != null && !future.isDone();
+	}
+
+	/**
+	 * @return The progress of the current or last migration
+	 */
+	public Progress getProgress()
+	{
+		return new Progress(read.get(), skipped.get(), written.get(), failed.get());
+	}
+
+	private Result run()
+	{
+		long start = System.currentTimeMillis();
+		Set<UUID> completed = readCheckpoint();
+
+		ExecutorService pool = Executors.newFixedThreadPool(parallelism, task ->
+		{
+			Thread thread = new Thread(task, plugin.getName() + "-DataMigration-Worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		// Bounds the number of batches held in memory at once
+		Semaphore permits = new Semaphore(parallelism * 2);
+		boolean strict = FileSerialization.setStrict(true);
+
+		try (Stream<T> stream = storedData(); BufferedWriter checkpoint = openCheckpoint())
+		{
+			Map<UUID, byte[]> batch = new LinkedHashMap<>();
+			Iterator<T> iter = stream.iterator();
+			while (iter.hasNext() && !cancelled)
+			{
+				T value = iter.next();
+				read.incrementAndGet();
+
+				UUID id = value.getId();
+				if (id == null)
+				{
+					failed.incrementAndGet();
+					continue;
+				}
+
+				byte[] snapshot;
+				if (loaded.containsKey(id))
+				{
+					snapshot = loaded.remove(id);
+				}
+				else if (source.getAllLoadedData().get(id) == value)
+				{
+					// Loaded after the migration started, so it cannot be read here
+					plugin.getLogHandler().log(Level.WARNING, "{0} was loaded during the migration. Run it again to migrate it.", id);
+					snapshot = null;
+				}
+				else
+				{
+					snapshot = completed.contains(id) ? null : snapshot(id, value);
+				}
+
+				batch = add(pool, permits, batch, completed, id, snapshot, checkpoint);
+			}
+
+			// Entries that are only cached, such as new players
+			Iterator<Map.Entry<UUID, byte[]>> cacheOnly = loaded.entrySet().iterator();
+			while (cacheOnly.hasNext() && !cancelled)
+			{
+				Map.Entry<UUID, byte[]> entry = cacheOnly.next();
+				read.incrementAndGet();
+				batch = add(pool, permits, batch, completed, entry.getKey(), entry.getValue(), checkpoint);
+			}
+
+			if (!batch.isEmpty() && !cancelled)
+				submit(pool, permits, batch, checkpoint);
+
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+		catch (IOException ex)
+		{
+			plugin.getLogHandler().log(Level.WARNING, Util.getUsefulStack(ex, "writing migration checkpoint {0}", checkpointFile));
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			cancelled = true;
+		}
+		finally
+		{
+			FileSerialization.setStrict(strict);
+			pool.shutdownNow();
+			loaded = null;
+		}
+
+		long targetCount = -1;
+		if (verify && !cancelled)
+		{
+			try (Stream<T> stream = target.streamAllData())
+			{
+				targetCount = stream.count();
+			}
+		}
+
+		if (!cancelled && failed.get() == 0 && checkpointFile != null)
+			checkpointFile.delete();
+
+		Result result = new Result(read.get(), skipped.get(), written.get(), failed.get(), targetCount, cancelled,
+				System.currentTimeMillis() - start);
+		plugin.getLogHandler().log("Data migration {0}: {1} read, {2} written, {3} skipped, {4} failed. Took {5} ms.",
+				cancelled ? "cancelled" : "complete", result.read(), result.written(), result.skipped(), result.failed(),
+				result.duration());
+		return result;
+	}
+
+	/**
+	 * Streams the source's storage, counting entries that cannot be read as
+	 * failed.
+	 */
+	private Stream<T> storedData()
+	{
+		if (source instanceof AbstractDataCache<T> cache)
+		{
+			return cache.streamStoredData(() ->
+			{
+				read.incrementAndGet();
+				failed.incrementAndGet();
+			});
+		}
+
+		return source.streamAllData();
+	}
+
+	/**
+	 * Snapshots an entry for the target.
+	 *
+	 * @return The snapshot, or null if any of its fields cannot be serialized
+	 */
+	private byte[] snapshot(UUID id, T value)
+	{
+		try
+		{
+			return target.toSnapshot(value);
+		}
+		catch (IOException | RuntimeException ex)
+		{
+			plugin.getLogHandler().log(Level.WARNING, Util.getUsefulStack(ex, "serializing {0}", id));
+			return null;
+		}
+	}
+
+	/**
+	 * Adds a snapshot to the current batch, submitting the batch once full.
+	 * Entries listed in the checkpoint are skipped, and null snapshots are
+	 * counted as failed.
+	 *
+	 * @return The batch to add to next
+	 */
+	private Map<UUID, byte[]> add(ExecutorService pool, Semaphore permits, Map<UUID, byte[]> batch, Set<UUID> completed,
+								  UUID id, byte[] snapshot, BufferedWriter checkpoint) throws InterruptedException
+	{
+		if (completed.contains(id))
+		{
+			skipped.incrementAndGet();
+			return batch;
+		}
+
+		if (snapshot == null)
+		{
+			failed.incrementAndGet();
+			return batch;
+		}
+
+		batch.put(id, snapshot);
+		if (batch.size() < batchSize)
+		{
+			return batch;
+		}
+
+		submit(pool, permits, batch, checkpoint);
+		return new LinkedHashMap<>();
+	}
+
+	private void submit(ExecutorService pool, Semaphore permits, Map<UUID, byte[]> batch, BufferedWriter checkpoint)
+		throws InterruptedException
+	{
+		permits.acquire();
+		pool.execute(() ->
+		{
+			// Targets rebuilding entries from snapshots must not drop fields either
+			FileSerialization.setStrict(true);
+
+			try
+			{
+				migrateBatch(batch, checkpoint);
+			}
+			catch (Throwable ex)
+			{
+				failed.addAndGet(batch.size());
+				plugin.getLogHandler().log(Level.WARNING, Util.getUsefulStack(ex, "migrating a batch of {0}", batch.size()));
+			}
+			finally
+			{
+				permits.release();
+			}
+		});
+	}
+
+	private void migrateBatch(Map<UUID, byte[]> snapshots, BufferedWriter checkpoint) throws IOException
+	{
+		Set<UUID> saved = target.saveBatch(snapshots);
+		target.syncSaved(saved);
+
+		snapshots.keySet().forEach(target::invalidateOffHeap);
+
+		List<UUID> done = new ArrayList<>(snapshots.size());
+		for (UUID id : snapshots.keySet())
+		{
+			if (!saved.contains(id))
+			{
+				failed.incrementAndGet();
+				continue;
+			}
+
+			written.incrementAndGet();
+			done.add(id);
+		}
+
+		if (checkpoint != null)
+		{
+			synchronized (checkpoint)
+			{
+				for (UUID id : done)
+				{
+					checkpoint.write(id.toString());
+					checkpoint.newLine();
+				}
+				checkpoint.flush();
+			}
+		}
+
+		listener.accept(getProgress());
+	}
+
+	private Set<UUID> readCheckpoint()
+	{
+		Set<UUID> completed = new HashSet<>();
+		if (checkpointFile == null || !checkpointFile.exists())
+		{
+			return completed;
+		}
+
+		try
+		{
+			for (String line : IOUtil.readLines(checkpointFile, StandardCharsets.UTF_8))
+			{
+				try
+				{
+					completed.add(UUID.fromString(line.trim()));
+				}
+				catch (IllegalArgumentException ignored)
+				{
+					// Partially written line
+				}
+			}
+		}
+		catch (IOException ex)
+		{
+			plugin.getLogHandler().log(Level.WARNING, Util.getUsefulStack(ex, "reading migration checkpoint {0}", checkpointFile));
+		}
+
+		return completed;
+	}
+
+	private BufferedWriter openCheckpoint() throws IOException
+	{
+		if (checkpointFile == null)
+		{
+			return null;
+		}
+
+		File parent = checkpointFile.getParentFile();
+		if (parent != null && !parent.exists())
+			parent.mkdirs();
+
+		return Files.newBufferedWriter(checkpointFile.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+			StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Counts of entries processed so far.
+	 */
+	public record Progress(long read, long skipped, long written, long failed) { }
+
+	/**
+	 * The outcome of a migration. The target count is the number of entries in
+	 * the target once the migration finished, or -1 if it was not verified.
+	 */
+	public record Result(long read, long skipped, long written, long failed, long targetCount, boolean cancelled,
+						 long duration)
+	{
+		/**
+		 * @return True if every entry read was migrated, now or in an earlier
+		 *         run, and the target holds at least that many entries
+		 */
+		public boolean isVerified()
+		{
+			return !cancelled && failed == 0 && targetCount >= written + skipped;
+		}
+	}
+}
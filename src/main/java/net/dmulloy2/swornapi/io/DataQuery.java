@@ -0,0 +1,153 @@
+package net.dmulloy2.swornapi.io;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.dizitart.no2.collection.FindOptions;
+import org.dizitart.no2.common.SortOrder;
+import org.dizitart.no2.filters.Filter;
+import org.dizitart.no2.repository.ObjectRepository;
+
+import net.dmulloy2.swornapi.util.Validate;
+
+/**
+ * A typed query against a {@link NitriteDataCache}. Filters and sorts on
+ * {@link Indexed} fields are served from the index.
+ * <p>
+ * Queries read what has been saved to the database. Entries that are cached
+ * are returned as the cached instance, but unsaved changes to them are not
+ * taken into account when filtering or sorting.
+ *
+ * <pre>
+ * List&lt;PlayerData&gt; top = cache.query()
+ *     .where(FluentFilter.where("kills").gt(0))
+ *     .sortBy("kills", SortOrder.Descending)
+ *     .limit(10)
+ *     .list();
+ * </pre>
+ *
+ * @author dmulloy2
+ */
+
+public class DataQuery<T extends AbstractPlayerData>
+{
+	private final ObjectRepository<T> repository;
+	private final Map<UUID, T> cache;
+
+	private Filter filter = Filter.ALL;
+	private final FindOptions options = new FindOptions();
+
+	DataQuery(ObjectRepository<T> repository, Map<UUID, T> cache)
+	{
+		this.repository = repository;
+		this.cache = cache;
+	}
+
+	/**
+	 * Only matches documents passing a given filter.
+	 *
+	 * @param filter Filter, usually built with
+	 *        {@link org.dizitart.no2.filters.FluentFilter#where(String)}
+	 * @return This query
+	 */
+	public DataQuery<T> where(Filter filter)
+	{
+		this.filter = Validate.notNull(filter, "filter cannot be null!");
+		return this;
+	}
+
+	/**
+	 * Sorts results by a field. Calling this more than once sorts by each
+	 * field in turn.
+	 *
+	 * @param field Field name
+	 * @param order Sort order
+	 * @return This query
+	 */
+	public DataQuery<T> sortBy(String field, SortOrder order)
+	{
+		Validate.notNull(field, "field cannot be null!");
+		Validate.notNull(order, "order cannot be null!");
+
+		options.thenOrderBy(field, order);
+		return this;
+	}
+
+	public DataQuery<T> skip(long skip)
+	{
+		options.skip(skip);
+		return this;
+	}
+
+	public DataQuery<T> limit(long limit)
+	{
+		options.limit(limit);
+		return this;
+	}
+
+	/**
+	 * @return Every matching entry
+	 */
+	public List<T> list()
+	{
+		List<T> results = new ArrayList<>();
+		for (T document : repository.find(filter, options))
+		{
+			T cached = cache.get(document.getId());
+			results.add(cached != null ? cached : document);
+		}
+
+		return results;
+	}
+
+	/**
+	 * Lazily streams matching entries. Documents are read from the cursor as
+	 * the stream is consumed rather than collected up front.
+	 *
+	 * @return A stream of matching entries
+	 */
+	public Stream<T> stream()
+	{
+		return StreamSupport.stream(repository.find(filter, options).spliterator(), false)
+			.map(document -> cache.getOrDefault(document.getId(), document));
+	}
+
+	/**
+	 * Lazily streams matching documents projected onto another type. Only the
+	 * fields declared by the projection type are mapped, which is much
+	 * cheaper than building full entries when only a few fields are needed.
+	 * Cached entries are not consulted.
+	 *
+	 * @param projection Projection type, typically a small class with a
+	 *        subset of the data class's fields
+	 * @return A stream of projections
+	 */
+	public <P> Stream<P> project(Class<P> projection)
+	{
+		Validate.notNull(projection, "projection cannot be null!");
+
+		return StreamSupport.stream(repository.find(filter, options).project(projection).spliterator(), false);
+	}
+
+	/**
+	 * @return The first matching entry, or null if there are none
+	 */
+	public T first()
+	{
+		options.limit(1L);
+		List<T> results = list();
+		return results.isEmpty() ? null : results.get(0);
+	}
+
+	/**
+	 * @return The number of matching documents, ignoring sort, skip and limit
+	 */
+	public long count()
+	{
+		return repository.find(filter).size();
+	}
+}
@@ -0,0 +1,48 @@
+package net.dmulloy2.swornapi.io;
+
+import java.io.File;
+import java.util.UUID;
+
+/**
+ * How {@link FileDataCache} arranges player files within its folder.
+ *
+ * @author dmulloy2
+ */
+public enum DirectoryLayout
+{
+	/**
+	 * Every file directly in the data folder, e.g. <code>data/&lt;uuid&gt;.yml</code>
+	 */
+	FLAT
+	{
+		@Override
+		public File getDirectory(File folder, UUID key)
+		{
+			return folder;
+		}
+	},
+	/**
+	 * Files split into 256 subdirectories by the first two characters of the
+	 * unique id, e.g. <code>data/3f/&lt;uuid&gt;.yml</code>. This keeps
+	 * directories small enough to list and search quickly once there are
+	 * hundreds of thousands of players.
+	 */
+	SHARDED
+	{
+		@Override
+		public File getDirectory(File folder, UUID key)
+		{
+			return new File(folder, key.toString().substring(0, 2));
+		}
+	},
+	;
+
+	/**
+	 * Gets the directory a given player's file belongs in.
+	 *
+	 * @param folder Data folder
+	 * @param key Player's unique id
+	 * @return The directory
+	 */
+	public abstract File getDirectory(File folder, UUID key);
+}
@@ -2,55 +2,294 @@ package net.dmulloy2.swornapi.io;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Collections;
-import java.util.HashMap;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
+import java.util.stream.Stream;
 
 import org.bukkit.OfflinePlayer;
-import org.bukkit.configuration.file.YamlConfiguration;
-import org.bukkit.configuration.serialization.ConfigurationSerializable;
 
 import net.dmulloy2.swornapi.SwornPlugin;
 import net.dmulloy2.swornapi.util.Util;
+import net.dmulloy2.swornapi.util.Validate;
 
 public abstract class FileDataCache<T extends AbstractPlayerData> extends AbstractDataCache<T>
 {
-	private String extension;
+	private final DataFormat format;
+	private final String extension;
 
-	private File folder;
+	private final File folder;
+
+	private volatile FsyncPolicy fsyncPolicy = FsyncPolicy.BATCHED;
+	private volatile DirectoryLayout layout = DirectoryLayout.FLAT;
+	private volatile boolean mixedLayout;
+
+	private volatile ForkJoinPool loadPool;
+	private int loadParallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
 
 	public FileDataCache(SwornPlugin plugin, String folderName, String extension)
+	{
+		this(plugin, folderName, DataFormat.YAML, extension);
+	}
+
+	public FileDataCache(SwornPlugin plugin, String folderName, DataFormat format)
+	{
+		this(plugin, folderName, format, format.getExtension());
+	}
+
+	public FileDataCache(SwornPlugin plugin, String folderName, DataFormat format, String extension)
 	{
 		super(plugin);
+		this.format = format;
 		this.extension = extension;
 		this.folder = new File(plugin.getDataFolder(), folderName);
+
+		// Nothing is being written yet, so any temporary files were left by a crash
+		IOUtil.deleteTempFiles(folder, 2);
 	}
 
 	protected abstract T dataCtor();
 
+	@Override
+	protected T fromSerialized(Map<String, Object> values)
+	{
+		T data = dataCtor();
+		FileSerialization.deserialize(data, values);
+		return data;
+	}
+
 	@Override
 	public void saveData(UUID key, T value) throws IOException
+	{
+		File file = getFile(key, layout);
+		format.write(value, file, fsyncPolicy);
+		removeStaleCopy(key);
+	}
+
+	@Override
+	protected void saveSnapshot(UUID key, byte[] snapshot) throws IOException
+	{
+		File file = getFile(key, layout);
+		if (format == DataFormat.BINARY)
+		{
+			// The snapshot is already in the file format
+			IOUtil.writeAtomically(file, snapshot, fsyncPolicy);
+		}
+		else
+		{
+			Map<String, Object> values = BinarySerialization.fromBytes(snapshot);
+			format.write(() -> values, file, fsyncPolicy);
+		}
+
+		removeStaleCopy(key);
+	}
+
+	private void removeStaleCopy(UUID key)
+	{
+		if (mixedLayout)
+		{
+			// Remove any stale copy left in the other layout
+			getFile(key, otherLayout()).delete();
+		}
+	}
+
+	@Override
+	void syncSaved(Collection<UUID> keys)
+	{
+		if (fsyncPolicy == FsyncPolicy.BATCHED)
+		{
+			Set<File> directories = new HashSet<>();
+			for (UUID key : keys)
+				directories.add(layout.getDirectory(folder, key));
+
+			for (File directory : directories)
+			{
+				if (directory.exists())
+					IOUtil.syncDirectory(directory);
+			}
+		}
+	}
+
+	/**
+	 * Sets when saved files are forced to disk. Defaults to
+	 * {@link FsyncPolicy#BATCHED}, which syncs the data folder once per saved
+	 * batch rather than once per player.
+	 *
+	 * @param fsyncPolicy New policy
+	 */
+	public void setFsyncPolicy(FsyncPolicy fsyncPolicy)
+	{
+		this.fsyncPolicy = Validate.notNull(fsyncPolicy, "fsyncPolicy cannot be null!");
+	}
+
+	public FsyncPolicy getFsyncPolicy()
+	{
+		return fsyncPolicy;
+	}
+
+	/**
+	 * Sets how player files are arranged in the data folder. If files remain
+	 * in the other layout, lookups fall back to it and saves remove stale
+	 * copies from it until {@link #migrateLayout()} has run, so switching is
+	 * safe at any time.
+	 *
+	 * @param layout New layout
+	 */
+	public void setLayout(DirectoryLayout layout)
+	{
+		Validate.notNull(layout, "layout cannot be null!");
+
+		if (this.layout != layout)
+		{
+			this.layout = layout;
+			this.mixedLayout = hasFiles(otherLayout());
+		}
+	}
+
+	public DirectoryLayout getLayout()
+	{
+		return layout;
+	}
+
+	/**
+	 * Moves every file stored in the other layout to where the current layout
+	 * expects it. This should be run before the cache is in use, typically in
+	 * <code>onEnable</code>.
+	 *
+	 * @return The number of files moved
+	 * @see #setLayout(DirectoryLayout)
+	 */
+	public int migrateLayout()
+	{
+		int moved = 0;
+		int failed = 0;
+
+		try (Stream<Path> files = listFiles(extension))
+		{
+			for (Path path : (Iterable<Path>) files::iterator)
+			{
+				UUID uuid = parseUUID(path);
+				if (uuid == null)
+				{
+					continue;
+				}
+
+				Path target = getFile(uuid, layout).toPath();
+				if (target.equals(path))
+				{
+					continue;
+				}
+
+				try
+				{
+					Files.createDirectories(target.getParent());
+					IOUtil.moveAtomically(path, target);
+					moved++;
+				}
+				catch (IOException ex)
+				{
+					plugin.getLogHandler().log(Level.WARNING, Util.getUsefulStack(ex, "moving {0}", path));
+					failed++;
+				}
+			}
+		}
+
+		if (failed == 0)
+			mixedLayout = false;
+
+		if (layout == DirectoryLayout.FLAT)
+		{
+			// Clean up the empty shard directories
+			File[] directories = folder.listFiles(File::isDirectory);
+			if (directories != null)
+			{
+				for (File directory : directories)
+					directory.delete();
+			}
+		}
+
+		IOUtil.syncDirectory(folder);
+		plugin.getLogHandler().log("Moved {0} data files to the {1} layout.", moved, layout);
+		return moved;
+	}
+
+	/**
+	 * Checks whether any data files are stored in a given layout. This stops
+	 * at the first file found.
+	 */
+	private boolean hasFiles(DirectoryLayout layout)
 	{
 		if (!folder.exists())
-			folder.mkdirs();
+		{
+			return false;
+		}
+
+		int depth = layout == DirectoryLayout.FLAT ? 1 : 2;
+		Path root = folder.toPath();
+
+		try (Stream<Path> files = Files.walk(root, depth))
+		{
+			return files.anyMatch(path -> root.relativize(path).getNameCount() == depth
+				&& path.getFileName().toString().endsWith(extension));
+		}
+		catch (IOException | UncheckedIOException ex)
+		{
+			// Keep falling back to be safe
+			return true;
+		}
+	}
+
+	private DirectoryLayout otherLayout()
+	{
+		return layout == DirectoryLayout.FLAT ? DirectoryLayout.SHARDED : DirectoryLayout.FLAT;
+	}
+
+	private File getFile(UUID key, DirectoryLayout layout)
+	{
+		return new File(layout.getDirectory(folder, key), getFileName(key));
+	}
 
-		File file = new File(folder, getFileName(key));
-		FileSerialization.save(value, file);
+	private File findFile(UUID key)
+	{
+		File file = getFile(key, layout);
+		if (file.exists() || !mixedLayout)
+		{
+			return file;
+		}
+
+		File other = getFile(key, otherLayout());
+		return other.exists() ? other : file;
 	}
 
-	private T loadData(File file)
+	private T loadData(File file, UUID key)
+	{
+		return loadData(file, format, key);
+	}
+
+	private T loadData(File file, DataFormat format, UUID key)
 	{
 		try
 		{
-			YamlConfiguration config = new YamlConfiguration();
-			config.load(file);
-			Map<String, Object> values = config.getValues(true);
+			Map<String, Object> values = format.read(file);
 
 			T data = dataCtor();
 			FileSerialization.deserialize(data, values);
 
+			// The id lives in the file name rather than the file
+			if (data.id == null)
+				data.id = key;
+
 			return data;
 		}
 		catch (Throwable ex)
@@ -63,17 +302,17 @@ public abstract class FileDataCache<T extends AbstractPlayerData> extends Abstra
 	@Override
 	public T loadData(OfflinePlayer player)
 	{
-		File file = new File(folder, getFileName(player.getUniqueId()));
+		File file = findFile(player.getUniqueId());
 		if (!file.exists())
 		{
 			return null;
 		}
 
-		T data = loadData(file);
+		T data = loadData(file, player.getUniqueId());
 		if (data == null)
 		{
 			// Corrupt data :(
-			if (! file.renameTo(new File(folder, file.getName() + "_bad")))
+			if (! file.renameTo(new File(file.getParentFile(), file.getName() + "_bad")))
 				file.delete();
 		}
 
@@ -83,36 +322,261 @@ public abstract class FileDataCache<T extends AbstractPlayerData> extends Abstra
 	@Override
 	public Map<UUID, T> getAllData()
 	{
-		Map<UUID, T> data = new HashMap<>(cache);
+		Map<UUID, T> data = new ConcurrentHashMap<>(cache);
+		forEachData(data::putIfAbsent);
+		return data;
+	}
 
-		if (!folder.exists())
+	/**
+	 * Visits every player's data, parsing files in parallel on this cache's
+	 * load pool. Cached entries are visited as they are, including those not
+	 * saved yet; everything else is loaded, passed to the visitor, and
+	 * discarded, so the full data set is never held in memory at once.
+	 * <p>
+	 * The visitor may be called from several threads at once. This method
+	 * blocks until every file has been visited.
+	 *
+	 * @param visitor Visitor to call for each entry
+	 * @see #setLoadParallelism(int)
+	 */
+	public void forEachData(BiConsumer<UUID, ? super T> visitor)
+	{
+		Validate.notNull(visitor, "visitor cannot be null!");
+
+		Set<UUID> seen = ConcurrentHashMap.newKeySet();
+
+		try (Stream<Path> files = listDataFiles())
 		{
-			return data;
+			loadPool().submit(() -> files.parallel().forEach(path ->
+			{
+				UUID uuid = parseUUID(path);
+				if (uuid == null || !seen.add(uuid))
+				{
+					return;
+				}
+
+				T data = cache.get(uuid);
+				if (data == null)
+				{
+					data = loadData(path.toFile(), uuid);
+				}
+
+				if (data != null)
+				{
+					visitor.accept(uuid, data);
+				}
+			})).join();
 		}
 
-		File[] files = folder.listFiles(file -> file.getName().endsWith(extension));
-		if (files == null || files.length == 0)
+		cache.forEach((uuid, data) ->
 		{
-			return data;
-		}
+			if (!seen.contains(uuid))
+				visitor.accept(uuid, data);
+		});
+	}
 
-		for (File file : files)
+	/**
+	 * Lazily streams every player's data. Files are only parsed as the stream
+	 * is consumed, and loaded entries are not cached. Cached entries that have
+	 * not been saved yet follow the files. The stream holds an open directory
+	 * handle and should be closed after use.
+	 *
+	 * @return A stream of every player's data
+	 */
+	@Override
+	public Stream<T> streamAllData()
+	{
+		Stream<Path> files = listDataFiles();
+		return withCacheOnly(files.map(path ->
 		{
-			String fileName = IOUtil.trimFileExtension(file, extension);
-			UUID uuid = UUID.fromString(fileName);
-			if (cache.containsKey(uuid))
+			UUID uuid = parseUUID(path);
+			if (uuid == null)
 			{
-				continue;
+				return null;
 			}
 
-			T loaded = loadData(file);
-			if (loaded != null)
+			T data = cache.get(uuid);
+			return data != null ? data : loadData(path.toFile(), uuid);
+		}).filter(Objects::nonNull));
+	}
+
+	@Override
+	Stream<T> streamStoredData(Runnable onFailure)
+	{
+		Set<UUID> seen = new HashSet<>();
+		return listDataFiles().map(path ->
+		{
+			UUID uuid = parseUUID(path);
+			if (uuid == null || !seen.add(uuid))
 			{
-				data.put(uuid, loaded);
+				return null;
 			}
+
+			T data = loadData(path.toFile(), uuid);
+			if (data == null)
+				onFailure.run();
+			return data;
+		}).filter(Objects::nonNull);
+	}
+
+	/**
+	 * Sets the number of threads used to parse files in
+	 * {@link #forEachData(BiConsumer)}. Defaults to half the available
+	 * processors.
+	 *
+	 * @param parallelism Number of threads
+	 */
+	public synchronized void setLoadParallelism(int parallelism)
+	{
+		Validate.isTrue(parallelism > 0, "parallelism must be positive!");
+
+		this.loadParallelism = parallelism;
+		if (loadPool != null)
+		{
+			loadPool.shutdown();
+			loadPool = null;
 		}
+	}
 
-		return data;
+	/**
+	 * Stops the load pool used by {@link #forEachData(BiConsumer)}, then
+	 * shuts down the rest of the cache. A later call to
+	 * {@link #forEachData(BiConsumer)} starts a new pool.
+	 */
+	@Override
+	public synchronized CompletableFuture<Void> shutdown()
+	{
+		if (loadPool != null)
+		{
+			loadPool.shutdown();
+			loadPool = null;
+		}
+
+		return super.shutdown();
+	}
+
+	private synchronized ForkJoinPool loadPool()
+	{
+		if (loadPool == null)
+			loadPool = new ForkJoinPool(loadParallelism);
+		return loadPool;
+	}
+
+	private Stream<Path> listDataFiles()
+	{
+		return listFiles(extension);
+	}
+
+	/**
+	 * Lists files with a given extension in the data folder and, in case
+	 * either layout is sharded, its immediate subdirectories.
+	 */
+	private Stream<Path> listFiles(String extension)
+	{
+		if (!folder.exists())
+		{
+			return Stream.empty();
+		}
+
+		int depth = layout == DirectoryLayout.FLAT && !mixedLayout ? 1 : 2;
+
+		try
+		{
+			return Files.walk(folder.toPath(), depth)
+				.filter(path -> path.getFileName().toString().endsWith(extension));
+		}
+		catch (IOException ex)
+		{
+			plugin.getLogHandler().log(Level.WARNING, Util.getUsefulStack(ex, "listing files in {0}", folder));
+			return Stream.empty();
+		}
+	}
+
+	/**
+	 * Converts every file in this cache's folder from another format into
+	 * this cache's format. Each file is loaded through the same field model
+	 * used for saving, written in the new format, and then deleted. Files that
+	 * fail to convert are left in place.
+	 *
+	 * @param from Format to convert from
+	 * @param fromExtension Extension of the files to convert
+	 * @return The number of files converted
+	 */
+	public int convertFiles(DataFormat from, String fromExtension)
+	{
+		Validate.notNull(from, "from cannot be null!");
+		Validate.notNull(fromExtension, "fromExtension cannot be null!");
+		Validate.isTrue(!fromExtension.equals(extension), "cannot convert files in place!");
+
+		int converted = 0;
+		Set<File> directories = new HashSet<>();
+
+		try (Stream<Path> files = listFiles(fromExtension))
+		{
+			for (Path path : (Iterable<Path>) files::iterator)
+			{
+				File file = path.toFile();
+
+				UUID uuid;
+				try
+				{
+					uuid = UUID.fromString(IOUtil.trimFileExtension(file, fromExtension));
+				}
+				catch (IllegalArgumentException ex)
+				{
+					continue;
+				}
+
+				T data = loadData(file, from, uuid);
+				if (data == null)
+				{
+					continue;
+				}
+
+				try
+				{
+					File target = getFile(uuid, layout);
+					format.write(data, target, fsyncPolicy);
+					directories.add(target.getParentFile());
+					file.delete();
+					converted++;
+				}
+				catch (IOException ex)
+				{
+					plugin.getLogHandler().log(Level.WARNING, Util.getUsefulStack(ex, "converting {0}", file.getName()));
+				}
+			}
+		}
+
+		if (fsyncPolicy == FsyncPolicy.BATCHED)
+			directories.forEach(IOUtil::syncDirectory);
+
+		plugin.getLogHandler().log("Converted {0} data files from {1} to {2}.", converted, from, format);
+		return converted;
+	}
+
+	/**
+	 * Converts every <code>.yml</code> file in this cache's folder into this
+	 * cache's format.
+	 *
+	 * @return The number of files converted
+	 * @see #convertFiles(DataFormat, String)
+	 */
+	public int convertYamlFiles()
+	{
+		return convertFiles(DataFormat.YAML, DataFormat.YAML.getExtension());
+	}
+
+	private UUID parseUUID(Path path)
+	{
+		try
+		{
+			return UUID.fromString(IOUtil.trimFileExtension(path.toFile(), extension));
+		}
+		catch (IllegalArgumentException ex)
+		{
+			return null;
+		}
 	}
 
 	private String getFileName(UUID key)
@@ -17,20 +17,56 @@
  */
 package net.dmulloy2.swornapi.io;
 
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.bukkit.plugin.java.JavaPlugin;
 
 /**
+ * Loads resources from a plugin's data folder, falling back to the parent
+ * class loader. Once {@link #watchForChanges()} has been called, lookups of
+ * files directly in the data folder are cached, and a background thread
+ * watches the folder so that added, changed or removed files are picked up
+ * live. Resources in subfolders are looked up every time. A watching loader
+ * must be closed once no longer needed, typically in <code>onDisable</code>,
+ * to stop the watcher thread.
+ *
  * @author dmulloy2
  */
 
-public class FileResourceLoader extends ClassLoader
+public class FileResourceLoader extends ClassLoader implements Closeable
 {
 	private transient final File dataFolder;
+
+	private final ConcurrentMap<String, Optional<File>> resolved = new ConcurrentHashMap<>();
+	private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+	private volatile boolean watchRequested;
+	private volatile WatchService watcher;
+	private boolean watchFailed;
+	private volatile boolean closed;
+
+	/** Bumped by the watcher before it invalidates anything */
+	private volatile long changes;
+
 	public FileResourceLoader(ClassLoader classLoader, JavaPlugin plugin)
 	{
 		super(classLoader);
@@ -40,8 +76,8 @@ public class FileResourceLoader extends ClassLoader
 	@Override
 	public URL getResource(String string)
 	{
-		File file = new File(dataFolder, string);
-		if (file.exists())
+		File file = resolve(string);
+		if (file != null)
 		{
 			try
 			{
@@ -55,15 +91,174 @@ public class FileResourceLoader extends ClassLoader
 	@Override
 	public InputStream getResourceAsStream(String string)
 	{
-		File file = new File(dataFolder, string);
-		if (file.exists())
+		File file = resolve(string);
+		if (file != null)
 		{
 			try
 			{
 				return new FileInputStream(file);
-			} catch (Throwable ignored) { }
+			}
+			catch (Throwable ignored)
+			{
+				resolved.remove(string);
+			}
 		}
 
 		return super.getResourceAsStream(string);
 	}
+
+	/**
+	 * Starts caching lookups and watching the data folder for changes. The
+	 * watcher wakes for every file written directly in the data folder, so
+	 * this is best avoided by plugins that keep busy files there. The watcher
+	 * thread runs until {@link #close()} is called.
+	 */
+	public void watchForChanges()
+	{
+		this.watchRequested = true;
+		startWatching();
+	}
+
+	/**
+	 * Adds a listener called from the watcher thread whenever a file in the
+	 * data folder that has been looked up changes.
+	 *
+	 * @param listener Listener to add
+	 */
+	public void addChangeListener(Runnable listener)
+	{
+		listeners.add(listener);
+	}
+
+	private File resolve(String name)
+	{
+		boolean watching = watchRequested && ((watcher != null && !closed) || startWatching());
+		if (!watching || name.indexOf('/') >= 0)
+		{
+			// Nothing would invalidate the cache
+			return lookup(name).orElse(null);
+		}
+
+		long before = changes;
+		Optional<File> file = resolved.computeIfAbsent(name, this::lookup);
+		if (changes != before)
+		{
+			// A change may have been invalidated before this result was cached
+			resolved.remove(name, file);
+			return lookup(name).orElse(null);
+		}
+
+		return file.orElse(null);
+	}
+
+	private Optional<File> lookup(String name)
+	{
+		File file = new File(dataFolder, name);
+		return file.exists() ? Optional.of(file) : Optional.empty();
+	}
+
+	private synchronized boolean startWatching()
+	{
+		if (closed || watchFailed)
+		{
+			return false;
+		}
+
+		if (watcher != null)
+		{
+			return true;
+		}
+
+		if (!dataFolder.isDirectory())
+		{
+			return false;
+		}
+
+		try
+		{
+			watcher = dataFolder.toPath().getFileSystem().newWatchService();
+			dataFolder.toPath().register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+		}
+		catch (IOException | UnsupportedOperationException ex)
+		{
+			watchFailed = true;
+			closeWatcher();
+			watcher = null;
+			return false;
+		}
+
+		Thread thread = new Thread(this::watch, "FileResourceLoader-" + dataFolder.getName());
+		thread.setDaemon(true);
+		thread.start();
+		return true;
+	}
+
+	private void watch()
+	{
+		while (!closed)
+		{
+			WatchKey key;
+			try
+			{
+				key = watcher.take();
+			}
+			catch (InterruptedException | ClosedWatchServiceException ex)
+			{
+				return;
+			}
+
+			changes++;
+
+			boolean changed = false;
+			for (WatchEvent<?> event : key.pollEvents())
+			{
+				if (event.kind() == OVERFLOW)
+				{
+					changed |= !resolved.isEmpty();
+					resolved.clear();
+					continue;
+				}
+
+				// Only notify about files that have actually been looked up
+				changed |= resolved.remove(event.context().toString()) != null;
+			}
+
+			if (!key.reset())
+			{
+				// The data folder was deleted
+				resolved.clear();
+				return;
+			}
+
+			if (changed)
+			{
+				for (Runnable listener : listeners)
+				{
+					try
+					{
+						listener.run();
+					} catch (Throwable ignored) { }
+				}
+			}
+		}
+	}
+
+	@Override
+	public synchronized void close()
+	{
+		closed = true;
+		closeWatcher();
+		resolved.clear();
+	}
+
+	private void closeWatcher()
+	{
+		if (watcher != null)
+		{
+			try
+			{
+				watcher.close();
+			} catch (IOException ignored) { }
+		}
+	}
 }
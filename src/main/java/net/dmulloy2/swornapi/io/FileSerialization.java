@@ -24,10 +24,9 @@ import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 import net.dmulloy2.swornapi.handlers.LogHandler;
 import net.dmulloy2.swornapi.util.Util;
@@ -86,22 +85,37 @@ public class FileSerialization
 	}
 
 	/**
-	 * Saves a serializable object to a given file.
+	 * Saves a serializable object to a given file. The file is replaced
+	 * atomically, but not synced to disk.
 	 * 
 	 * @param instance Object to seriaize
 	 * @param file File to save to
 	 * @throws IllegalArgumentException If the instance or file is null
 	 * @throws IOException If the file cannot be written to
 	 * @see #load(File, Class, boolean)
+	 * @see #save(ConfigurationSerializable, File, FsyncPolicy)
 	 */
 	public static void save(ConfigurationSerializable instance, File file) throws IOException
+	{
+		save(instance, file, FsyncPolicy.NEVER);
+	}
+
+	/**
+	 * Saves a serializable object to a given file. The file is replaced
+	 * atomically, so a crash mid-save leaves the previous contents intact.
+	 *
+	 * @param instance Object to seriaize
+	 * @param file File to save to
+	 * @param fsync When to force the file to disk
+	 * @throws IllegalArgumentException If the instance or file is null
+	 * @throws IOException If the file cannot be written to
+	 * @see IOUtil#writeAtomically(File, byte[], FsyncPolicy)
+	 */
+	public static void save(ConfigurationSerializable instance, File file, FsyncPolicy fsync) throws IOException
 	{
 		Validate.notNull(instance, "instance cannot be null!");
 		Validate.notNull(file, "file cannot be null!");
 
-		file.delete();
-		file.createNewFile();
-
 		YamlConfiguration config = new YamlConfiguration();
 
 		for (Entry<String, Object> entry : instance.serialize().entrySet())
@@ -109,10 +123,35 @@ public class FileSerialization
 			config.set(entry.getKey(), entry.getValue());
 		}
 
-		config.save(file);
+		byte[] bytes = config.saveToString().getBytes(StandardCharsets.UTF_8);
+		IOUtil.writeAtomically(file, bytes, fsync);
 	}
 
-	private static final ConcurrentMap<String, Optional<MethodHandle>> SERIALIZE_CACHE = new ConcurrentHashMap<>();
+	private static final ClassValue<ClassCodec> CODECS = new ClassValue<>()
+	{
+		@Override
+		protected ClassCodec computeValue(Class<?> type)
+		{
+			return new ClassCodec(type);
+		}
+	};
+
+	private static final ThreadLocal<Boolean> STRICT = ThreadLocal.withInitial(() -> false);
+
+	/**
+	 * Sets whether fields that fail to (de)serialize on the current thread
+	 * throw an {@link IllegalStateException} instead of being skipped, so
+	 * that partial records are not copied anywhere.
+	 *
+	 * @param strict Whether to throw
+	 * @return The previous setting, to be restored afterwards
+	 */
+	static boolean setStrict(boolean strict)
+	{
+		boolean previous = STRICT.get();
+		STRICT.set(strict);
+		return previous;
+	}
 
 	/**
 	 * Serializes all of an object's fields into a Map. This method ignores
@@ -123,156 +162,303 @@ public class FileSerialization
 	 */
 	public static Map<String, Object> serialize(Object object)
 	{
-		Map<String, Object> data = new LinkedHashMap<>();
+		ClassCodec codec = CODECS.get(object.getClass());
+		Map<String, Object> data = new LinkedHashMap<>(codec.fields.length * 2);
 
-		for (Field field : object.getClass().getDeclaredFields())
+		for (FieldCodec field : codec.fields)
 		{
 			try
 			{
-				if (Modifier.isTransient(field.getModifiers()))
-					continue;
-
-				field.setAccessible(true);
-
-				if (field.getType().equals(Integer.TYPE))
-				{
-					if (field.getInt(object) != 0)
-						data.put(field.getName(), field.getInt(object));
-				}
-				else if (field.getType().equals(Long.TYPE))
-				{
-					if (field.getLong(object) != 0)
-						data.put(field.getName(), field.getLong(object));
-				}
-				else if (field.getType().equals(Boolean.TYPE))
-				{
-					if (field.getBoolean(object))
-						data.put(field.getName(), field.getBoolean(object));
-				}
-				else if (field.getType().isAssignableFrom(Collection.class))
-				{
-					if (! ((Collection<?>) field.get(object)).isEmpty())
-						data.put(field.getName(), field.get(object));
-				}
-				else if (field.getType().isAssignableFrom(String.class))
-				{
-					if (field.get(object) != null)
-						data.put(field.getName(), field.get(object));
-				}
-				else if (field.getType().isAssignableFrom(Map.class))
-				{
-					if (! ((Map<?, ?>) field.get(object)).isEmpty())
-						data.put(field.getName(), field.get(object));
-				}
-				else if (field.getType().isEnum())
-				{
-					data.put(field.getName(), ((Enum<?>) field.get(object)).name().toLowerCase());
-				}
-				else if (field.get(object) != null)
-				{
-					String className = field.getType().getName();
-					if (!SERIALIZE_CACHE.containsKey(className))
-					{
-						try
-						{
-							MethodType methodType = MethodType.methodType(Object.class);
-							MethodHandle serialHandle = MethodHandles.publicLookup().findVirtual(field.getType(), "serialize", methodType);
-							SERIALIZE_CACHE.put(className, Optional.of(serialHandle));
-						}
-						catch (NoSuchMethodException ex)
-						{
-							SERIALIZE_CACHE.put(className, Optional.empty());
-						}
-					}
-
-					Optional<MethodHandle> serialHandle = SERIALIZE_CACHE.get(className);
-					if (serialHandle.isPresent())
-					{
-						data.put(field.getName(), serialHandle.get().invoke(field.get(object)));
-					}
-					else
-					{
-						data.put(field.getName(), field.get(object));
-					}
-				}
+				field.serialize(object, data);
 			}
 			catch (Throwable ex)
 			{
+				if (STRICT.get())
+					throw new IllegalStateException("Failed to serialize field " + field.name + " of " + object, ex);
+
 				if (LogHandler.isGlobalDebugEnabled())
 					LogHandler.globalDebug(Util.getUsefulStack(ex, "serializing field {0} of {1}",
-						field.getName(), object));
+						field.name, object));
 			}
 		}
 
 		return data;
 	}
 
-	private static final ConcurrentMap<String, Optional<MethodHandle>> DESERIALIZE_CACHE = new ConcurrentHashMap<>();
-
-	@SuppressWarnings("unchecked")
 	public static void deserialize(Object object, Map<String, Object> data)
 	{
+		ClassCodec codec = CODECS.get(object.getClass());
+
 		for (Entry<String, Object> entry : data.entrySet())
 		{
 			String fieldName = entry.getKey();
-			Object fieldData = entry.getValue();
+
+			FieldCodec field = codec.byName.get(fieldName);
+			if (field == null)
+				continue;
 
 			try
 			{
-				Field field = object.getClass().getDeclaredField(fieldName);
+				field.deserialize(object, entry.getValue());
+			}
+			catch (Throwable ex)
+			{
+				if (STRICT.get())
+					throw new IllegalStateException("Failed to deserialize field " + fieldName + " of " + object, ex);
+
+				if (LogHandler.isGlobalDebugEnabled())
+					LogHandler.globalDebug(Util.getUsefulStack(ex, "deserializing field {0} of {1}",
+						fieldName, object));
+			}
+		}
+	}
+
+	/**
+	 * The non-transient declared fields of a class, resolved once.
+	 */
+	private static final class ClassCodec
+	{
+		private final FieldCodec[] fields;
+		private final Map<String, FieldCodec> byName;
+
+		private ClassCodec(Class<?> type)
+		{
+			List<FieldCodec> fields = new ArrayList<>();
+			Map<String, FieldCodec> byName = new HashMap<>();
+
+			for (Field field : type.getDeclaredFields())
+			{
 				if (Modifier.isTransient(field.getModifiers()))
 					continue;
 
+				FieldCodec codec = new FieldCodec(field);
+				fields.add(codec);
+				byName.put(codec.name, codec);
+			}
+
+			this.fields = fields.toArray(new FieldCodec[0]);
+			this.byName = Map.copyOf(byName);
+		}
+	}
+
+	private enum Strategy
+	{
+		INT,
+		LONG,
+		BOOLEAN,
+		COLLECTION,
+		STRING,
+		MAP,
+		ENUM,
+		OTHER;
+
+		private static Strategy of(Class<?> type)
+		{
+			if (type == Integer.TYPE)
+				return INT;
+			if (type == Long.TYPE)
+				return LONG;
+			if (type == Boolean.TYPE)
+				return BOOLEAN;
+			if (type.isAssignableFrom(Collection.class))
+				return COLLECTION;
+			if (type.isAssignableFrom(String.class))
+				return STRING;
+			if (type.isAssignableFrom(Map.class))
+				return MAP;
+			if (type.isEnum())
+				return ENUM;
+			return OTHER;
+		}
+	}
+
+	/**
+	 * A single field with its accessors, type strategy, and custom
+	 * <code>serialize</code> and <code>deserialize</code> methods resolved.
+	 */
+	private static final class FieldCodec
+	{
+		private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+		private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+		private final String name;
+		private final Class<?> type;
+		private final Strategy strategy;
+
+		private final MethodHandle getter;
+		private final MethodHandle setter;
+		private final MethodHandle serializer;
+		private final MethodHandle deserializer;
+		private final Enum<?>[] enumConstants;
+
+		private FieldCodec(Field field)
+		{
+			this.name = field.getName();
+			this.type = field.getType();
+			this.strategy = Strategy.of(type);
+
+			MethodHandle getter = null;
+			MethodHandle setter = null;
+
+			try
+			{
 				field.setAccessible(true);
 
-				Class<?> fieldType = field.getType();
-				if (fieldType.isPrimitive())
+				boolean isStatic = Modifier.isStatic(field.getModifiers());
+				MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+				getter = lookup.unreflectGetter(field);
+				if (isStatic)
+					getter = MethodHandles.dropArguments(getter, 0, Object.class);
+				getter = getter.asType(GETTER_TYPE);
+
+				try
 				{
-					field.set(object, fieldData);
+					setter = lookup.unreflectSetter(field);
+					if (isStatic)
+						setter = MethodHandles.dropArguments(setter, 0, Object.class);
+					setter = setter.asType(SETTER_TYPE);
+				} catch (IllegalAccessException ignored) { }
+			}
+			catch (Throwable ex)
+			{
+				if (LogHandler.isGlobalDebugEnabled())
+					LogHandler.globalDebug(Util.getUsefulStack(ex, "resolving field {0}", field));
+			}
+
+			this.getter = getter;
+			this.setter = setter;
+
+			this.serializer = strategy == Strategy.OTHER && !type.isPrimitive() ? findSerializer(type) : null;
+			this.deserializer = !type.isPrimitive() && !type.isEnum() ? findDeserializer(type) : null;
+			this.enumConstants = type.isEnum() ? (Enum<?>[]) type.getEnumConstants() : null;
+		}
+
+		private static MethodHandle findSerializer(Class<?> type)
+		{
+			try
+			{
+				MethodHandle handle = MethodHandles.publicLookup().findVirtual(type, "serialize", MethodType.methodType(Object.class));
+				return handle.asType(GETTER_TYPE);
+			}
+			catch (ReflectiveOperationException ex)
+			{
+				return null;
+			}
+		}
+
+		private static MethodHandle findDeserializer(Class<?> type)
+		{
+			try
+			{
+				MethodHandle handle = MethodHandles.publicLookup().findStatic(type, "deserialize", MethodType.methodType(type, Object.class));
+				return handle.asType(GETTER_TYPE);
+			}
+			catch (ReflectiveOperationException ex)
+			{
+				return null;
+			}
+		}
+
+		private void serialize(Object object, Map<String, Object> data) throws Throwable
+		{
+			if (getter == null)
+				return;
+
+			Object value = getter.invokeExact(object);
+
+			switch (strategy)
+			{
+				case INT ->
+				{
+					if ((Integer) value != 0)
+						data.put(name, value);
+				}
+				case LONG ->
+				{
+					if ((Long) value != 0)
+						data.put(name, value);
 				}
-				else if (fieldType.isEnum())
+				case BOOLEAN ->
 				{
-					Class<? extends Enum<?>> enumType = (Class<? extends Enum<?>>) fieldType;
-					String name = fieldData.toString();
-					Object enumValue = Arrays.stream(enumType.getEnumConstants())
-						.filter(e -> e.name().equalsIgnoreCase(name)).findFirst().orElseThrow();
-					field.set(object, enumValue);
+					if ((Boolean) value)
+						data.put(name, value);
 				}
-				else
+				case COLLECTION ->
 				{
-					String className = fieldType.getName();
-					if (!DESERIALIZE_CACHE.containsKey(className))
-					{
-						try
-						{
-							MethodType methodType = MethodType.methodType(fieldType, Object.class);
-							MethodHandle serialHandle = MethodHandles.publicLookup().findStatic(field.getType(), "deserialize", methodType);
-							DESERIALIZE_CACHE.put(className, Optional.of(serialHandle));
-						}
-						catch (NoSuchMethodException ex)
-						{
-							DESERIALIZE_CACHE.put(className, Optional.empty());
-						}
-					}
-
-					Optional<MethodHandle> deserialize = DESERIALIZE_CACHE.get(className);
-					if (deserialize.isPresent())
-					{
-						field.set(object, deserialize.get().invoke(fieldData));
-					}
-					else
-					{
-						field.set(object, fieldData);
-					}
+					if (! ((Collection<?>) value).isEmpty())
+						data.put(name, value);
+				}
+				case STRING ->
+				{
+					if (value != null)
+						data.put(name, value);
+				}
+				case MAP ->
+				{
+					if (! ((Map<?, ?>) value).isEmpty())
+						data.put(name, value);
+				}
+				case ENUM -> data.put(name, ((Enum<?>) value).name().toLowerCase());
+				case OTHER ->
+				{
+					if (value != null)
+						data.put(name, serializer != null ? (Object) serializer.invokeExact(value) : value);
 				}
 			}
-			catch (NoSuchFieldException ignored) { }
-			catch (Throwable ex)
+		}
+
+		private void deserialize(Object object, Object fieldData) throws Throwable
+		{
+			if (setter == null)
+				return;
+
+			Object value;
+			if (type.isPrimitive())
 			{
-				if (LogHandler.isGlobalDebugEnabled())
-					LogHandler.globalDebug(Util.getUsefulStack(ex, "deserializing field {0} of {1}",
-						fieldName, object));
+				value = coercePrimitive(fieldData);
+			}
+			else if (enumConstants != null)
+			{
+				String enumName = fieldData.toString();
+				value = Arrays.stream(enumConstants)
+					.filter(e -> e.name().equalsIgnoreCase(enumName)).findFirst().orElseThrow();
+			}
+			else if (deserializer != null)
+			{
+				value = (Object) deserializer.invokeExact(fieldData);
 			}
+			else
+			{
+				value = fieldData;
+			}
+
+			setter.invokeExact(object, value);
+		}
+
+		/**
+		 * Converts a number to this field's primitive type, since YAML does not
+		 * preserve the exact width of numbers it writes.
+		 */
+		private Object coercePrimitive(Object value)
+		{
+			if (value instanceof Number number)
+			{
+				if (type == Integer.TYPE)
+					return number.intValue();
+				if (type == Long.TYPE)
+					return number.longValue();
+				if (type == Double.TYPE)
+					return number.doubleValue();
+				if (type == Float.TYPE)
+					return number.floatValue();
+				if (type == Short.TYPE)
+					return number.shortValue();
+				if (type == Byte.TYPE)
+					return number.byteValue();
+			}
+
+			return value;
 		}
 	}
-}
\ No newline at end of file
+}
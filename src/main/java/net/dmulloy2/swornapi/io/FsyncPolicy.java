@@ -0,0 +1,31 @@
+package net.dmulloy2.swornapi.io;
+
+/**
+ * Controls when data files are forced to disk after an atomic write.
+ *
+ * @author dmulloy2
+ * @see IOUtil#writeAtomically(java.io.File, byte[], FsyncPolicy)
+ */
+public enum FsyncPolicy
+{
+	/**
+	 * Every file and its directory are synced as soon as it is written. This
+	 * survives power loss, at the cost of two syncs per file.
+	 */
+	ALWAYS,
+	/**
+	 * Files that replace an existing file are not synced individually; the
+	 * directory is synced once after each batch of writes. This relies on the
+	 * filesystem writing file data before a rename that replaces an existing
+	 * file, which ext4, XFS and btrfs do by default. That ordering does not
+	 * cover files written for the first time, so their contents are still
+	 * synced before the rename.
+	 */
+	BATCHED,
+	/**
+	 * Nothing is synced explicitly. Writes remain atomic, so a crash of the
+	 * server process never leaves a partially written file.
+	 */
+	NEVER,
+	;
+}
@@ -18,6 +18,8 @@
 package net.dmulloy2.swornapi.io;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -25,8 +27,23 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 import net.dmulloy2.swornapi.util.Validate;
 
@@ -38,6 +55,11 @@ import net.dmulloy2.swornapi.util.Validate;
 
 public class IOUtil
 {
+	private static final int MAPPED_REGION_SIZE = 64 * 1024 * 1024;
+
+	private static final String TEMP_EXTENSION = ".tmp";
+	private static final Pattern TEMP_FILE = Pattern.compile(".+\\.[0-9a-z]{1,13}" + Pattern.quote(TEMP_EXTENSION));
+
 	private IOUtil() { }
 
 	/**
@@ -90,6 +112,336 @@ public class IOUtil
 		}
 	}
 
+	/**
+	 * Reads the lines of a given file with an explicit charset.
+	 *
+	 * @param file File to read
+	 * @param charset Charset to decode with
+	 * @return The lines
+	 * @throws IOException If reading fails
+	 */
+	public static List<String> readLines(File file, Charset charset) throws IOException
+	{
+		Validate.notNull(file, "file cannot be null!");
+		Validate.notNull(charset, "charset cannot be null!");
+
+		try (BufferedReader reader = Files.newBufferedReader(file.toPath(), charset))
+		{
+			List<String> lines = new ArrayList<>();
+
+			String line;
+			while ((line = reader.readLine()) != null)
+				lines.add(line);
+
+			return lines;
+		}
+	}
+
+	/**
+	 * Lazily reads the lines of a given file. Lines are only read as the
+	 * stream is consumed, so large files are never held in memory at once. The
+	 * stream holds the file open and must be closed after use.
+	 *
+	 * @param file File to read
+	 * @param charset Charset to decode with
+	 * @return A stream of the lines
+	 * @throws IOException If the file cannot be opened
+	 */
+	public static Stream<String> lines(File file, Charset charset) throws IOException
+	{
+		Validate.notNull(file, "file cannot be null!");
+		Validate.notNull(charset, "charset cannot be null!");
+
+		return Files.lines(file.toPath(), charset);
+	}
+
+	/**
+	 * Reads the lines of a large UTF-8 file by memory-mapping it in regions,
+	 * avoiding copies through the Java heap for anything but the lines
+	 * themselves. Both <code>\n</code> and <code>\r\n</code> line endings
+	 * are supported.
+	 *
+	 * @param file File to read
+	 * @return The lines
+	 * @throws IOException If reading fails
+	 */
+	public static List<String> readLinesMapped(File file) throws IOException
+	{
+		return readLinesMapped(file, MAPPED_REGION_SIZE);
+	}
+
+	/**
+	 * Reads the lines of a file, mapping regions of a given size at a time.
+	 */
+	static List<String> readLinesMapped(File file, int regionSize) throws IOException
+	{
+		Validate.notNull(file, "file cannot be null!");
+		Validate.isTrue(regionSize > 0, "regionSize must be positive!");
+
+		List<String> lines = new ArrayList<>();
+		ByteArrayOutputStream partial = new ByteArrayOutputStream();
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			long size = channel.size();
+			for (long position = 0; position < size; position += regionSize)
+			{
+				MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position,
+					Math.min(regionSize, size - position));
+
+				int start = 0;
+				int limit = region.limit();
+				for (int i = 0; i < limit; i++)
+				{
+					if (region.get(i) != '\n')
+						continue;
+
+					ByteBuffer line = region.slice(start, i - start);
+					if (partial.size() > 0)
+					{
+						// The line started in the previous region
+						partial.writeBytes(toArray(line));
+						line = ByteBuffer.wrap(partial.toByteArray());
+						partial.reset();
+					}
+
+					lines.add(decodeLine(line));
+					start = i + 1;
+				}
+
+				partial.writeBytes(toArray(region.slice(start, limit - start)));
+			}
+		}
+
+		if (partial.size() > 0)
+			lines.add(decodeLine(ByteBuffer.wrap(partial.toByteArray())));
+
+		return lines;
+	}
+
+	private static byte[] toArray(ByteBuffer buffer)
+	{
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	private static String decodeLine(ByteBuffer line)
+	{
+		int end = line.limit();
+		if (end > line.position() && line.get(end - 1) == '\r')
+			line.limit(end - 1);
+
+		return StandardCharsets.UTF_8.decode(line).toString();
+	}
+
+	/**
+	 * Atomically writes lines to a given file through a buffered writer with
+	 * an explicit charset. Lines are written to a temporary file that then
+	 * replaces the target, so a failed write never leaves a partial file.
+	 *
+	 * @param file File to write to
+	 * @param lines Lines to write
+	 * @param charset Charset to encode with
+	 * @throws IOException If writing fails
+	 */
+	public static void writeLines(File file, Iterable<String> lines, Charset charset) throws IOException
+	{
+		Validate.notNull(file, "file cannot be null!");
+		Validate.notNull(lines, "lines cannot be null!");
+		Validate.notNull(charset, "charset cannot be null!");
+
+		replaceAtomically(file, temp ->
+		{
+			try (BufferedWriter writer = Files.newBufferedWriter(temp, charset))
+			{
+				for (String line : lines)
+				{
+					writer.write(line);
+					writer.newLine();
+				}
+			}
+		}, false);
+	}
+
+	/**
+	 * Atomically replaces the contents of a given file. The data is written to
+	 * a temporary file in the same directory, which is then renamed over the
+	 * target, so readers and crashes only ever see the old or the new
+	 * contents.
+	 *
+	 * @param file File to write to
+	 * @param bytes Contents to write
+	 * @param fsync Whether to force the file and its directory to disk
+	 * @throws IOException If writing fails
+	 */
+	public static void writeAtomically(File file, byte[] bytes, boolean fsync) throws IOException
+	{
+		writeAtomically(file, bytes, fsync ? FsyncPolicy.ALWAYS : FsyncPolicy.NEVER);
+	}
+
+	/**
+	 * Atomically replaces the contents of a given file, syncing it according
+	 * to a given policy. Under {@link FsyncPolicy#BATCHED}, the contents of a
+	 * file that did not exist yet are still forced to disk, since there are no
+	 * old contents to fall back to; the caller syncs the directory.
+	 *
+	 * @param file File to write to
+	 * @param bytes Contents to write
+	 * @param policy When to force the file and its directory to disk
+	 * @throws IOException If writing fails
+	 * @see #writeAtomically(File, byte[], boolean)
+	 */
+	public static void writeAtomically(File file, byte[] bytes, FsyncPolicy policy) throws IOException
+	{
+		Validate.notNull(file, "file cannot be null!");
+		Validate.notNull(bytes, "bytes cannot be null!");
+		Validate.notNull(policy, "policy cannot be null!");
+
+		boolean force = policy == FsyncPolicy.ALWAYS || (policy == FsyncPolicy.BATCHED && !file.exists());
+		replaceAtomically(file, temp ->
+		{
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE))
+			{
+				ByteBuffer buffer = ByteBuffer.wrap(bytes);
+				while (buffer.hasRemaining())
+					channel.write(buffer);
+
+				if (force)
+					channel.force(true);
+			}
+		}, policy == FsyncPolicy.ALWAYS);
+	}
+
+	/**
+	 * Writes to a temporary file next to the target, then renames it over the
+	 * target. The temporary file is deleted if writing fails.
+	 */
+	private static void replaceAtomically(File file, PathWriter writer, boolean fsync) throws IOException
+	{
+		Path target = file.toPath().toAbsolutePath();
+		Path directory = target.getParent();
+		Files.createDirectories(directory);
+
+		Path temp = createTempFile(target);
+
+		try
+		{
+			writer.write(temp);
+			moveAtomically(temp, target);
+		}
+		catch (IOException ex)
+		{
+			Files.deleteIfExists(temp);
+			throw ex;
+		}
+
+		if (fsync)
+			syncDirectory(directory.toFile());
+	}
+
+	/**
+	 * Creates an empty sibling of a given file. Unlike
+	 * {@link Files#createTempFile(Path, String, String)}, which is always
+	 * owner-only, the file gets the default permissions, or the target's
+	 * permissions if it already exists.
+	 */
+	private static Path createTempFile(Path target) throws IOException
+	{
+		Path temp;
+		while (true)
+		{
+			String suffix = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+			temp = target.resolveSibling(target.getFileName() + "." + suffix + TEMP_EXTENSION);
+
+			try
+			{
+				Files.createFile(temp);
+				break;
+			}
+			catch (FileAlreadyExistsException ignored) { }
+		}
+
+		try
+		{
+			if (Files.exists(target))
+				Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(target));
+		}
+		catch (UnsupportedOperationException | IOException ignored)
+		{
+			// Not a POSIX filesystem, or the target was replaced meanwhile
+		}
+
+		return temp;
+	}
+
+	/**
+	 * Deletes temporary files left in a given directory, and in its
+	 * subdirectories up to a given depth, by atomic writes that were
+	 * interrupted by a crash. This must not run while files in the directory
+	 * are being written.
+	 *
+	 * @param directory Directory to clean up
+	 * @param depth Maximum number of directory levels to visit
+	 * @return The number of files deleted
+	 */
+	public static int deleteTempFiles(File directory, int depth)
+	{
+		Validate.notNull(directory, "directory cannot be null!");
+
+		if (!directory.isDirectory())
+		{
+			return 0;
+		}
+
+		int deleted = 0;
+		try (Stream<Path> files = Files.walk(directory.toPath(), depth))
+		{
+			for (Path path : (Iterable<Path>) files::iterator)
+			{
+				if (TEMP_FILE.matcher(path.getFileName().toString()).matches() && Files.deleteIfExists(path))
+					deleted++;
+			}
+		}
+		catch (IOException | UncheckedIOException ignored) { }
+
+		return deleted;
+	}
+
+	@FunctionalInterface
+	private interface PathWriter
+	{
+		void write(Path path) throws IOException;
+	}
+
+	static void moveAtomically(Path source, Path target) throws IOException
+	{
+		try
+		{
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (AtomicMoveNotSupportedException ex)
+		{
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Forces a directory's entries, such as renamed files, to disk. This is a
+	 * no-op on platforms that cannot open directories, like Windows.
+	 *
+	 * @param directory Directory to sync
+	 */
+	public static void syncDirectory(File directory)
+	{
+		Validate.notNull(directory, "directory cannot be null!");
+
+		try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ))
+		{
+			channel.force(true);
+		} catch (IOException ignored) { }
+	}
+
 	/**
 	 * Returns the given {@link File}'s name with the extension omitted.
 	 *
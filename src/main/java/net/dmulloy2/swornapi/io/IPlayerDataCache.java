@@ -1,14 +1,66 @@
 package net.dmulloy2.swornapi.io;
 
+import java.util.Collection;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
+import org.bukkit.Bukkit;
 import org.bukkit.OfflinePlayer;
 
 public interface IPlayerDataCache<T extends AbstractPlayerData>
 {
 	T getData(OfflinePlayer player);
 
+	/**
+	 * Gets a player's data without blocking the calling thread. Concurrent
+	 * requests for the same player share a single load.
+	 *
+	 * The default implementation loads on the calling thread.
+	 *
+	 * @param uuid Player's unique id
+	 * @return A future completing with the data, or null if none exists
+	 */
+	default CompletableFuture<T> getDataAsync(UUID uuid)
+	{
+		return CompletableFuture.completedFuture(preload(uuid));
+	}
+
+	/**
+	 * Loads a player's data into the cache on the calling thread, joining any
+	 * load already in progress.
+	 *
+	 * @param uuid Player's unique id
+	 * @return The data, or null if none exists
+	 */
+	default T preload(UUID uuid)
+	{
+		return getData(Bukkit.getOfflinePlayer(uuid));
+	}
+
+	/**
+	 * Loads several players' data into the cache in the background, for
+	 * example players who were recently active or are queued to join.
+	 * Players who are already cached are skipped. The default implementation
+	 * loads them one by one on the calling thread.
+	 *
+	 * @param uuids Players' unique ids
+	 * @param concurrency Maximum number of loads running at once
+	 * @return A future completing with the number of players loaded
+	 */
+	default CompletableFuture<Integer> preload(Collection<UUID> uuids, int concurrency)
+	{
+		int loaded = 0;
+		for (UUID uuid : uuids)
+		{
+			if (!getAllLoadedData().containsKey(uuid) && preload(uuid) != null)
+				loaded++;
+		}
+
+		return CompletableFuture.completedFuture(loaded);
+	}
+
 	T loadData(OfflinePlayer player);
 
 	T newData(OfflinePlayer player);
@@ -19,5 +71,28 @@ public interface IPlayerDataCache<T extends AbstractPlayerData>
 
 	Map<UUID, T> getAllData();
 
+	/**
+	 * Lazily streams every player's data. Implementations backed by storage
+	 * that can be iterated should avoid loading everything at once. The
+	 * stream should be closed after use.
+	 *
+	 * @return A stream of every player's data
+	 */
+	default Stream<T> streamAllData()
+	{
+		return getAllData().values().stream();
+	}
+
 	Map<UUID, T> getAllLoadedData();
+
+	/**
+	 * Gets hit, miss and latency statistics for this cache. The default
+	 * implementation records nothing.
+	 *
+	 * @return This cache's metrics
+	 */
+	default CacheMetrics getMetrics()
+	{
+		return new CacheMetrics(() -> getAllLoadedData().size());
+	}
 }
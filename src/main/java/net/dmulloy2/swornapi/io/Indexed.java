@@ -0,0 +1,30 @@
+package net.dmulloy2.swornapi.io;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.dizitart.no2.index.IndexType;
+
+/**
+ * Marks a field of an {@link AbstractPlayerData} subclass to be indexed by
+ * {@link NitriteDataCache}, so that queries filtering or sorting on it do not
+ * have to scan every document.
+ *
+ * @author dmulloy2
+ * @see NitriteDataCache#query()
+ */
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Indexed
+{
+	/**
+	 * The Nitrite index type, one of the constants in {@link IndexType}.
+	 * Defaults to {@link IndexType#NON_UNIQUE}.
+	 *
+	 * @return The index type
+	 */
+	String value() default IndexType.NON_UNIQUE;
+}
@@ -1,32 +1,80 @@
 package net.dmulloy2.swornapi.io;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.bukkit.OfflinePlayer;
 import org.dizitart.no2.Nitrite;
+import org.dizitart.no2.collection.Document;
 import org.dizitart.no2.collection.FindOptions;
+import org.dizitart.no2.common.mapper.NitriteMapper;
+import org.dizitart.no2.common.SortOrder;
+import org.dizitart.no2.index.IndexOptions;
+import org.dizitart.no2.index.IndexType;
 import org.dizitart.no2.mvstore.MVStoreModule;
 import org.dizitart.no2.repository.Cursor;
 import org.dizitart.no2.repository.ObjectRepository;
+import org.dizitart.no2.store.NitriteStore;
+import org.dizitart.no2.transaction.Session;
+import org.dizitart.no2.transaction.Transaction;
+import org.h2.mvstore.MVStore;
 
 import net.dmulloy2.swornapi.SwornPlugin;
+import net.dmulloy2.swornapi.util.Util;
+import net.dmulloy2.swornapi.util.Validate;
 
 public abstract class NitriteDataCache<T extends AbstractPlayerData> extends AbstractDataCache<T> implements AutoCloseable
 {
 	protected final ObjectRepository<T> repository;
 	private final Nitrite db;
+	private final Class<T> dataClass;
+	private final File dbFile;
+	private final NitriteSettings settings;
+
+	private int batchSize = 500;
+
+	private ScheduledExecutorService compactor;
+	private volatile CompactionResult lastCompaction;
 
 	public NitriteDataCache(SwornPlugin plugin, File dbFile, Class<T> dataClass)
+	{
+		this(plugin, dbFile, dataClass, new NitriteSettings());
+	}
+
+	public NitriteDataCache(SwornPlugin plugin, File dbFile, Class<T> dataClass, NitriteSettings settings)
 	{
 		super(plugin);
 
+		Validate.notNull(settings, "settings cannot be null!");
+		this.dbFile = dbFile;
+		this.settings = settings;
+
 		MVStoreModule storeModule = MVStoreModule.withConfig()
 			.filePath(dbFile.getAbsolutePath())
-			.compress(true)
+			.cacheSize(settings.getCacheSize())
+			.autoCommitBufferSize(settings.getAutoCommitBufferSize())
+			.compress(settings.isCompress())
+			.compressHigh(settings.isCompressHigh())
+			.autoCompact(settings.isAutoCompact())
 			.build();
 
 		this.db = Nitrite.builder()
@@ -34,11 +82,198 @@ public abstract class NitriteDataCache<T extends AbstractPlayerData> extends Abs
 			.openOrCreate();
 
 		this.repository = db.getRepository(dataClass);
+		this.dataClass = dataClass;
+
+		for (Class<?> clazz = dataClass; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass())
+		{
+			for (Field field : clazz.getDeclaredFields())
+			{
+				Indexed indexed = field.getAnnotation(Indexed.class);
+				if (indexed != null)
+				{
+					registerIndex(field.getName(), indexed.value());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates an index on a given field if it does not already exist. Fields
+	 * annotated with {@link Indexed} are registered automatically.
+	 *
+	 * @param field Field name
+	 * @param indexType One of the constants in {@link IndexType}
+	 */
+	public void registerIndex(String field, String indexType)
+	{
+		Validate.notNull(field, "field cannot be null!");
+		Validate.notNull(indexType, "indexType cannot be null!");
+
+		if (!repository.hasIndex(field))
+		{
+			plugin.getLogHandler().log("Building {0} index on {1}...", indexType, field);
+			repository.createIndex(IndexOptions.indexOptions(indexType), field);
+		}
+	}
+
+	/**
+	 * Creates a non-unique index on a given field if it does not already
+	 * exist.
+	 *
+	 * @param field Field name
+	 * @see #registerIndex(String, String)
+	 */
+	public void registerIndex(String field)
+	{
+		registerIndex(field, IndexType.NON_UNIQUE);
+	}
+
+	/**
+	 * Sets the maximum number of records written in a single transaction.
+	 * This applies to every save, whether from {@link #save()},
+	 * {@link #flush()}, write-behind or eviction. Defaults to 500.
+	 *
+	 * @param batchSize Maximum records per transaction
+	 */
+	public void setBatchSize(int batchSize)
+	{
+		Validate.isTrue(batchSize > 0, "batchSize must be positive!");
+		this.batchSize = batchSize;
+	}
+
+	// ---- Compaction
+
+	/**
+	 * The outcome of a single compaction.
+	 *
+	 * @param sizeBefore File size in bytes before compacting
+	 * @param sizeAfter File size in bytes after compacting
+	 * @param duration Time taken in milliseconds
+	 * @param timestamp When the compaction finished
+	 */
+	public record CompactionResult(long sizeBefore, long sizeAfter, long duration, long timestamp) { }
+
+	/**
+	 * Compacts the database file, moving live pages together and truncating
+	 * free space at the end. This runs for at most
+	 * {@link NitriteSettings#getMaxCompactTime()} milliseconds and can be
+	 * called while the cache is in use.
+	 *
+	 * @return The outcome of the compaction
+	 */
+	public CompactionResult compact()
+	{
+		long start = System.currentTimeMillis();
+		long sizeBefore = dbFile.length();
+
+		db.commit();
+
+		MVStore store = getMVStore();
+		if (store != null)
+		{
+			store.compactFile(settings.getMaxCompactTime());
+		}
+		else
+		{
+			plugin.getLogHandler().log(Level.WARNING, "Unable to access the underlying MVStore; only committed {0}", dbFile.getName());
+		}
+
+		long sizeAfter = dbFile.length();
+		long finish = System.currentTimeMillis();
+
+		CompactionResult result = new CompactionResult(sizeBefore, sizeAfter, finish - start, finish);
+		this.lastCompaction = result;
+
+		plugin.getLogHandler().log("Compacted {0}: {1} KB -> {2} KB. Took {3} ms.", dbFile.getName(),
+			sizeBefore / 1024, sizeAfter / 1024, result.duration());
+		return result;
+	}
+
+	/**
+	 * Compacts the database file periodically on a background thread.
+	 *
+	 * @param interval Time between compactions
+	 * @param unit Unit of the interval
+	 * @see #compact()
+	 */
+	public synchronized void scheduleCompaction(long interval, TimeUnit unit)
+	{
+		Validate.isTrue(interval > 0, "interval must be positive!");
+
+		if (compactor != null)
+		{
+			compactor.shutdownNow();
+		}
+
+		compactor = Executors.newSingleThreadScheduledExecutor(runnable ->
+		{
+			Thread thread = new Thread(runnable, plugin.getName() + "-DataCompact");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		compactor.scheduleWithFixedDelay(() ->
+		{
+			try
+			{
+				compact();
+			}
+			catch (Throwable ex)
+			{
+				plugin.getLogHandler().log(Level.WARNING, Util.getUsefulStack(ex, "compacting {0}", dbFile.getName()));
+			}
+		}, interval, interval, unit);
+	}
+
+	/**
+	 * @return The outcome of the last compaction, or null if none has run
+	 */
+	public CompactionResult getLastCompaction()
+	{
+		return lastCompaction;
+	}
+
+	/**
+	 * Nitrite does not expose the MVStore behind its store, so find it
+	 * reflectively.
+	 */
+	private MVStore getMVStore()
+	{
+		NitriteStore<?> store = db.getStore();
+		for (Class<?> clazz = store.getClass(); clazz != null; clazz = clazz.getSuperclass())
+		{
+			for (Field field : clazz.getDeclaredFields())
+			{
+				if (MVStore.class.isAssignableFrom(field.getType()))
+				{
+					try
+					{
+						field.setAccessible(true);
+						return (MVStore) field.get(store);
+					}
+					catch (ReflectiveOperationException | RuntimeException ex)
+					{
+						return null;
+					}
+				}
+			}
+		}
+
+		return null;
 	}
 
 	@Override
 	public void close()
 	{
+		synchronized (this)
+		{
+			if (compactor != null)
+			{
+				compactor.shutdownNow();
+				compactor = null;
+			}
+		}
+
 		if (repository != null)
 		{
 			repository.close();
@@ -56,6 +291,129 @@ public abstract class NitriteDataCache<T extends AbstractPlayerData> extends Abs
 		repository.update(value, true);
 	}
 
+	/**
+	 * Snapshots an entry as the Nitrite document it would be stored as, so
+	 * the snapshot covers exactly what Nitrite writes. This runs on the
+	 * thread that owns the entry, and the document is detached from it.
+	 */
+	@Override
+	protected byte[] toSnapshot(T value)
+	{
+		Document document = mapper().tryConvert(value, Document.class);
+		if (document == null)
+		{
+			return null;
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes))
+		{
+			out.writeObject(document);
+		}
+		catch (IOException ex)
+		{
+			plugin.getLogHandler().log(Level.WARNING, Util.getUsefulStack(ex, "snapshotting {0}", value.getId()));
+			return null;
+		}
+
+		return bytes.toByteArray();
+	}
+
+	@Override
+	protected T fromSnapshot(byte[] snapshot) throws IOException
+	{
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(snapshot)))
+		{
+			Document document = (Document) in.readObject();
+			return dataClass.cast(mapper().tryConvert(document, dataClass));
+		}
+		catch (ClassNotFoundException | ClassCastException ex)
+		{
+			throw new IOException("Invalid snapshot for " + dataClass.getName(), ex);
+		}
+	}
+
+	@Override
+	protected void saveSnapshot(UUID key, byte[] snapshot) throws IOException
+	{
+		T value = fromSnapshot(snapshot);
+		value.id = key;
+		repository.update(value, true);
+	}
+
+	private NitriteMapper mapper()
+	{
+		return db.getConfig().nitriteMapper();
+	}
+
+	/**
+	 * Writes the batch through Nitrite transactions, committing up to
+	 * {@link #setBatchSize(int) batchSize} records at a time instead of once
+	 * per record. If a transaction fails, it is rolled back and its records
+	 * are retried individually.
+	 */
+	@Override
+	protected Set<UUID> saveBatch(Map<UUID, byte[]> snapshots)
+	{
+		Set<UUID> saved = new HashSet<>();
+		List<Map.Entry<UUID, byte[]>> entries = new ArrayList<>(snapshots.entrySet());
+
+		for (int start = 0; start < entries.size(); start += batchSize)
+		{
+			List<Map.Entry<UUID, byte[]>> chunk = entries.subList(start, Math.min(start + batchSize, entries.size()));
+
+			long startTime = System.nanoTime();
+			if (!saveTransaction(chunk))
+			{
+				Map<UUID, byte[]> retry = new LinkedHashMap<>();
+				chunk.forEach(entry -> retry.put(entry.getKey(), entry.getValue()));
+				saved.addAll(super.saveBatch(retry));
+				continue;
+			}
+
+			long perRecord = (System.nanoTime() - startTime) / chunk.size();
+			for (Map.Entry<UUID, byte[]> entry : chunk)
+			{
+				saved.add(entry.getKey());
+				metrics.recordSave(perRecord);
+			}
+		}
+
+		return saved;
+	}
+
+	private boolean saveTransaction(List<Map.Entry<UUID, byte[]>> snapshots)
+	{
+		try (Session session = db.createSession())
+		{
+			Transaction transaction = session.beginTransaction();
+
+			try
+			{
+				ObjectRepository<T> txRepository = transaction.getRepository(dataClass);
+				for (Map.Entry<UUID, byte[]> entry : snapshots)
+				{
+					T value = fromSnapshot(entry.getValue());
+					value.id = entry.getKey();
+					txRepository.update(value, true);
+				}
+
+				transaction.commit();
+				return true;
+			}
+			catch (Throwable ex)
+			{
+				transaction.rollback();
+				plugin.getLogHandler().log(Level.WARNING, Util.getUsefulStack(ex, "saving a batch of {0} records", snapshots.size()));
+				return false;
+			}
+			finally
+			{
+				transaction.close();
+			}
+		}
+	}
+
 	@Override
 	public T loadData(OfflinePlayer player)
 	{
@@ -80,8 +438,54 @@ public abstract class NitriteDataCache<T extends AbstractPlayerData> extends Abs
 		return data;
 	}
 
+	/**
+	 * Lazily streams every entry from the database cursor, substituting cached
+	 * instances where they exist. Cached entries that have not been saved yet
+	 * follow the database's. Unlike {@link #getAllData()}, this never holds
+	 * the whole store in memory.
+	 *
+	 * @return A stream of every player's data
+	 * @see DataQuery#project(Class)
+	 */
+	@Override
+	public Stream<T> streamAllData()
+	{
+		return withCacheOnly(query().stream());
+	}
+
+	@Override
+	Stream<T> streamStoredData(Runnable onFailure)
+	{
+		return StreamSupport.stream(repository.find().spliterator(), false);
+	}
+
 	public Iterable<T> query(FindOptions options)
 	{
 		return repository.find(options);
 	}
+
+	/**
+	 * Starts a typed query against this cache's database.
+	 *
+	 * @return A new query matching every document
+	 * @see DataQuery
+	 */
+	public DataQuery<T> query()
+	{
+		return new DataQuery<>(repository, cache);
+	}
+
+	/**
+	 * Gets the entries with the highest values of a given field, such as the
+	 * top 10 players by kills. The field should be {@link Indexed} so that
+	 * only the requested entries are read.
+	 *
+	 * @param field Field name
+	 * @param count Number of entries
+	 * @return Up to <code>count</code> entries, highest first
+	 */
+	public List<T> top(String field, int count)
+	{
+		return query().sortBy(field, SortOrder.Descending).limit(count).list();
+	}
 }
@@ -0,0 +1,52 @@
+package net.dmulloy2.swornapi.io;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+/**
+ * Storage settings for a {@link NitriteDataCache}. The defaults match the
+ * settings used before these were configurable.
+ *
+ * @author dmulloy2
+ */
+@Getter
+@Setter
+@Accessors(chain=true)
+public class NitriteSettings
+{
+	/**
+	 * MVStore read cache size in MB.
+	 */
+	private int cacheSize = 16;
+
+	/**
+	 * Size in KB of unsaved changes buffered before MVStore commits them to
+	 * disk in the background.
+	 */
+	private int autoCommitBufferSize = 1024;
+
+	/**
+	 * Whether to compress pages with LZF.
+	 */
+	private boolean compress = true;
+
+	/**
+	 * Whether to compress pages with Deflate instead, which is smaller but
+	 * slower. Takes precedence over {@link #compress}.
+	 */
+	private boolean compressHigh = false;
+
+	/**
+	 * Whether MVStore compacts the file on its own while it is idle and when
+	 * it is closed.
+	 */
+	private boolean autoCompact = true;
+
+	/**
+	 * Maximum time in milliseconds a single background compaction may run.
+	 */
+	private int maxCompactTime = 2000;
+
+	public NitriteSettings() { }
+}
@@ -0,0 +1,289 @@
+package net.dmulloy2.swornapi.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.dmulloy2.swornapi.util.Validate;
+
+/**
+ * A second-level cache for player data evicted from an
+ * {@link AbstractDataCache}. Entries are stored as serialized bytes in direct
+ * buffers outside of the Java heap, so recently evicted players can be
+ * rehydrated without disk I/O and without adding to GC pressure.
+ * <p>
+ * Memory is allocated in 1 MiB slabs split into 1 KiB blocks, which are
+ * reused as entries come and go. The tier is bounded by the number of blocks
+ * its entries occupy; once full, the least recently used entries are dropped.
+ * Only clean data is stored, so dropping an entry never loses changes.
+ * <p>
+ * One tier can be shared by several caches. Each cache stores its entries
+ * under its own namespace, so caches never see each other's data.
+ *
+ * @author dmulloy2
+ * @see AbstractDataCache#setOffHeapTier(OffHeapDataTier)
+ */
+
+public class OffHeapDataTier
+{
+	private static final int BLOCK_SIZE = 1024;
+	private static final int BLOCKS_PER_SLAB = 1024;
+
+	private static final AtomicInteger NAMESPACES = new AtomicInteger();
+
+	private final Map<Key, Entry> entries = new LinkedHashMap<>(64, 0.75F, true);
+	private final long maxBytes;
+	private final int maxBlocks;
+
+	private final List<ByteBuffer> slabs = new ArrayList<>();
+	private int[] freeBlocks = new int[0];
+	private int freeCount;
+	private int allocatedBlocks;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * @param maxBytes Maximum total size of the stored entries in bytes,
+	 *        rounded up to a whole number of blocks
+	 */
+	public OffHeapDataTier(long maxBytes)
+	{
+		Validate.isTrue(maxBytes > 0, "maxBytes must be positive!");
+		this.maxBytes = maxBytes;
+		this.maxBlocks = (int) Math.min(Integer.MAX_VALUE, (maxBytes + BLOCK_SIZE - 1) / BLOCK_SIZE);
+	}
+
+	/**
+	 * Creates a namespace that no other user of any tier shares.
+	 *
+	 * @return A new namespace
+	 */
+	public static int newNamespace()
+	{
+		return NAMESPACES.incrementAndGet();
+	}
+
+	/**
+	 * Stores an entry, replacing any existing entry for the same key. Entries
+	 * larger than the whole tier are not stored.
+	 *
+	 * @param namespace Namespace of the caller
+	 * @param key Player's unique id
+	 * @param bytes Serialized data
+	 * @return True if the entry was stored, false if it was too large
+	 */
+	public synchronized boolean put(int namespace, UUID key, byte[] bytes)
+	{
+		Validate.notNull(key, "key cannot be null!");
+		Validate.notNull(bytes, "bytes cannot be null!");
+
+		Key entryKey = new Key(namespace, key);
+		release(entries.remove(entryKey));
+
+		int needed = Math.max(1, (bytes.length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+		if (needed > maxBlocks)
+		{
+			return false;
+		}
+
+		reserve(needed);
+
+		int[] blocks = new int[needed];
+		for (int i = 0; i < needed; i++)
+		{
+			int block = freeBlocks[--freeCount];
+			int offset = i * BLOCK_SIZE;
+			slab(block).put(position(block), bytes, offset, Math.min(BLOCK_SIZE, bytes.length - offset));
+			blocks[i] = block;
+		}
+
+		entries.put(entryKey, new Entry(blocks, bytes.length));
+		return true;
+	}
+
+	/**
+	 * Removes and returns an entry. Rehydrated data moves back to the first
+	 * level, so the tier does not keep a copy that could go stale.
+	 *
+	 * @param namespace Namespace of the caller
+	 * @param key Player's unique id
+	 * @return The serialized data, or null if the tier does not hold it
+	 */
+	public synchronized byte[] take(int namespace, UUID key)
+	{
+		Entry entry = entries.remove(new Key(namespace, key));
+		if (entry == null)
+		{
+			misses++;
+			return null;
+		}
+
+		hits++;
+
+		byte[] bytes = new byte[entry.length()];
+		for (int i = 0; i < entry.blocks().length; i++)
+		{
+			int block = entry.blocks()[i];
+			int offset = i * BLOCK_SIZE;
+			slab(block).get(position(block), bytes, offset, Math.min(BLOCK_SIZE, bytes.length - offset));
+		}
+
+		release(entry);
+		return bytes;
+	}
+
+	/**
+	 * Drops an entry, for example after its data was changed elsewhere.
+	 *
+	 * @param namespace Namespace of the caller
+	 * @param key Player's unique id
+	 */
+	public synchronized void invalidate(int namespace, UUID key)
+	{
+		release(entries.remove(new Key(namespace, key)));
+	}
+
+	/**
+	 * Drops every entry in a given namespace, leaving other namespaces alone.
+	 *
+	 * @param namespace Namespace to drop
+	 */
+	public synchronized void invalidateAll(int namespace)
+	{
+		Iterator<Map.Entry<Key, Entry>> iter = entries.entrySet().iterator();
+		while (iter.hasNext())
+		{
+			Map.Entry<Key, Entry> entry = iter.next();
+			if (entry.getKey().namespace() == namespace)
+			{
+				release(entry.getValue());
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * Drops every entry and frees the tier's memory. This affects every cache
+	 * using the tier, so only its owner should call it.
+	 */
+	public synchronized void clear()
+	{
+		entries.clear();
+		slabs.clear();
+		freeBlocks = new int[0];
+		freeCount = 0;
+		allocatedBlocks = 0;
+	}
+
+	/**
+	 * Makes sure a given number of blocks are free, allocating slabs while
+	 * under the limit and dropping the least recently used entries after.
+	 */
+	private void reserve(int needed)
+	{
+		while (freeCount < needed && allocatedBlocks < maxBlocks)
+		{
+			int count = Math.min(BLOCKS_PER_SLAB, maxBlocks - allocatedBlocks);
+			slabs.add(ByteBuffer.allocateDirect(count * BLOCK_SIZE));
+
+			if (freeBlocks.length < allocatedBlocks + count)
+				freeBlocks = Arrays.copyOf(freeBlocks, allocatedBlocks + count);
+
+			for (int i = allocatedBlocks + count - 1; i >= allocatedBlocks; i--)
+				freeBlocks[freeCount++] = i;
+
+			allocatedBlocks += count;
+		}
+
+		Iterator<Entry> iter = entries.values().iterator();
+		while (freeCount < needed && iter.hasNext())
+		{
+			Entry entry = iter.next();
+			iter.remove();
+			release(entry);
+			evictions++;
+		}
+	}
+
+	private void release(Entry entry)
+	{
+		if (entry != null)
+		{
+			for (int block : entry.blocks())
+				freeBlocks[freeCount++] = block;
+		}
+	}
+
+	private ByteBuffer slab(int block)
+	{
+		return slabs.get(block / BLOCKS_PER_SLAB);
+	}
+
+	private static int position(int block)
+	{
+		return (block % BLOCKS_PER_SLAB) * BLOCK_SIZE;
+	}
+
+	public long getMaxBytes()
+	{
+		return maxBytes;
+	}
+
+	/**
+	 * @return Off-heap memory occupied by stored entries in bytes
+	 */
+	public synchronized long getUsedBytes()
+	{
+		return (long) (allocatedBlocks - freeCount) * BLOCK_SIZE;
+	}
+
+	/**
+	 * @return Off-heap memory allocated for slabs in bytes, used or not
+	 */
+	public synchronized long getAllocatedBytes()
+	{
+		return (long) allocatedBlocks * BLOCK_SIZE;
+	}
+
+	public synchronized int getEntryCount()
+	{
+		return entries.size();
+	}
+
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	/**
+	 * @return The number of entries dropped to stay within the size limit
+	 */
+	public synchronized long getEvictions()
+	{
+		return evictions;
+	}
+
+	public synchronized void resetMetrics()
+	{
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	private record Key(int namespace, UUID id) { }
+
+	private record Entry(int[] blocks, int length) { }
+}
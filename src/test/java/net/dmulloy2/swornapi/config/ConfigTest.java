@@ -6,6 +6,7 @@ package net.dmulloy2.swornapi.config;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import com.google.common.base.Charsets;
@@ -39,12 +40,14 @@ import static org.mockito.Mockito.when;
 
 public class ConfigTest
 {
+	private static SwornPlugin plugin;
+
 	@BeforeAll
 	public static void beforeClass() throws Throwable
 	{
 		BukkitTesting.initializeAll();
 
-		SwornPlugin plugin = mock(SwornPlugin.class);
+		plugin = mock(SwornPlugin.class);
 		when(plugin.getLogHandler()).thenReturn(new LogHandler(plugin, Logger.getGlobal()));
 
 		// Mock the config
@@ -168,6 +171,162 @@ public class ConfigTest
 		assertTrue(Config.entityTypes.contains(EntityType.WITHER_SKELETON));
 	}
 
+	@Test
+	public void testIncremental()
+	{
+		YamlConfiguration config = new YamlConfiguration();
+		config.set("string", "first");
+		config.set("material", "diamond");
+
+		InstanceConfig target = new InstanceConfig();
+		assertEquals(Set.of("string", "material"), ConfigParser.parseIncremental(plugin, config, target));
+		assertEquals("first", target.string);
+		assertEquals(Material.DIAMOND, target.material);
+
+		// Unchanged keys are not assigned again
+		config.set("string", "second");
+		target.material = Material.STONE;
+		assertEquals(Set.of("string"), ConfigParser.parseIncremental(plugin, config, target));
+		assertEquals("second", target.string);
+		assertEquals(Material.STONE, target.material);
+
+		assertTrue(ConfigParser.parseIncremental(plugin, config, target).isEmpty());
+	}
+
+	@Test
+	public void testIncrementalRemovedKey()
+	{
+		YamlConfiguration config = new YamlConfiguration();
+		config.set("string", "first");
+
+		InstanceConfig target = new InstanceConfig();
+		ConfigParser.parseIncremental(plugin, config, target);
+		assertEquals("first", target.string);
+
+		config.set("string", null);
+		assertEquals(Set.of("string"), ConfigParser.parseIncremental(plugin, config, target));
+		assertEquals("failed", target.string);
+	}
+
+	@Test
+	public void testIncrementalEqualTargets()
+	{
+		YamlConfiguration config = new YamlConfiguration();
+		config.set("string", "first");
+
+		// Targets that are equal by value must still be tracked separately
+		EqualConfig a = new EqualConfig();
+		EqualConfig b = new EqualConfig();
+		assertEquals(a, b);
+
+		ConfigParser.parseIncremental(plugin, config, a);
+		assertEquals(Set.of("string", "material"), ConfigParser.parseIncremental(plugin, config, b));
+		assertEquals("first", b.string);
+	}
+
+	@Test
+	public void testParseAll()
+	{
+		YamlConfiguration first = new YamlConfiguration();
+		first.set("string", "first");
+		YamlConfiguration second = new YamlConfiguration();
+		second.set("string", "second");
+		second.set("material", "diamond");
+
+		InstanceConfig a = new InstanceConfig();
+		InstanceConfig b = new InstanceConfig();
+		ConfigParser.parseAll(plugin, List.of(ConfigParser.Target.of(first, a), ConfigParser.Target.of(second, b)));
+
+		assertEquals("first", a.string);
+		assertEquals(Material.ROTTEN_FLESH, a.material);
+		assertEquals("second", b.string);
+		assertEquals(Material.DIAMOND, b.material);
+	}
+
+	@Test
+	public void testItemMemoization()
+	{
+		ConfigParser.clearCaches();
+		assertEquals(0, ConfigParser.cachedItemCount());
+
+		YamlConfiguration config = new YamlConfiguration();
+		config.set("item", "golden_apple, 2");
+
+		ItemConfig first = new ItemConfig();
+		ConfigParser.parse(plugin, config, first);
+		assertEquals(Material.GOLDEN_APPLE, first.item.getType());
+		assertEquals(2, first.item.getAmount());
+		assertEquals(1, ConfigParser.cachedItemCount());
+
+		// Changing a parsed item must not leak into the cached copy
+		first.item.setAmount(5);
+
+		ItemConfig second = new ItemConfig();
+		ConfigParser.parse(plugin, config, second);
+		assertNotSame(first.item, second.item);
+		assertEquals(2, second.item.getAmount());
+		assertEquals(1, ConfigParser.cachedItemCount());
+
+		ConfigParser.clearCaches();
+		assertEquals(0, ConfigParser.cachedItemCount());
+
+		ItemConfig third = new ItemConfig();
+		ConfigParser.parse(plugin, config, third);
+		assertEquals(2, third.item.getAmount());
+		assertEquals(1, ConfigParser.cachedItemCount());
+	}
+
+	@Test
+	public void testItemMemoizationSkipsFailures()
+	{
+		ConfigParser.clearCaches();
+
+		YamlConfiguration config = new YamlConfiguration();
+		config.set("item", "not_an_item");
+
+		ConfigParser.parse(plugin, config, new ItemConfig());
+		assertEquals(0, ConfigParser.cachedItemCount());
+	}
+
+	private static class ItemConfig
+	{
+		@Key("item")
+		@TransformValue(Transform.PARSE_ITEM)
+		private ItemStack item = new ItemStack(Material.ROTTEN_FLESH);
+	}
+
+	private static class InstanceConfig
+	{
+		@Key("string")
+		private String string = "failed";
+
+		@Key("material")
+		@TransformValue(Transform.PARSE_MATERIAL)
+		private Material material = Material.ROTTEN_FLESH;
+	}
+
+	private static class EqualConfig
+	{
+		@Key("string")
+		private String string = "failed";
+
+		@Key("material")
+		@TransformValue(Transform.PARSE_MATERIAL)
+		private Material material = Material.ROTTEN_FLESH;
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			return obj instanceof EqualConfig;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 0;
+		}
+	}
+
 	private static class Config
 	{
 		@Key("string")
@@ -0,0 +1,78 @@
+package net.dmulloy2.swornapi.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author dmulloy2
+ */
+
+public class BinarySerializationTest
+{
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		UUID id = UUID.randomUUID();
+
+		Map<String, Object> nested = new LinkedHashMap<>();
+		nested.put("kills", 12);
+		nested.put("ratio", 1.5D);
+
+		Map<String, Object> data = new LinkedHashMap<>();
+		data.put("name", "dmulloy2");
+		data.put("points", 42);
+		data.put("lastSeen", 1234567890123L);
+		data.put("admin", true);
+		data.put("id", id);
+		data.put("friends", List.of("a", "b", "é"));
+		data.put("stats", nested);
+
+		Map<String, Object> read = BinarySerialization.fromBytes(BinarySerialization.toBytes(data));
+		assertEquals(data, read);
+		assertEquals(List.copyOf(data.keySet()), List.copyOf(read.keySet()));
+	}
+
+	@Test
+	public void testRejectsInvalidHeader()
+	{
+		assertThrows(IOException.class, () -> BinarySerialization.fromBytes(new byte[] { 0, 1, 2, 3, 0, 1, 0, 0, 0, 0 }));
+	}
+
+	@Test
+	public void testRejectsCorruptInput() throws IOException
+	{
+		byte[] valid = BinarySerialization.toBytes(Map.of("name", "dmulloy2"));
+
+		// Header: magic (4), version (2), payload length (4); then the map tag,
+		// entry count (4) and the first key's length (4)
+		assertThrows(IOException.class, () -> BinarySerialization.fromBytes(withShort(valid, 4, (short) 0)));
+		assertThrows(IOException.class, () -> BinarySerialization.fromBytes(withInt(valid, 6, Integer.MAX_VALUE)));
+		assertThrows(IOException.class, () -> BinarySerialization.fromBytes(withInt(valid, 11, Integer.MAX_VALUE)));
+		assertThrows(IOException.class, () -> BinarySerialization.fromBytes(withInt(valid, 15, Integer.MAX_VALUE)));
+		assertThrows(IOException.class, () -> BinarySerialization.fromBytes(withInt(valid, 15, -1)));
+		assertThrows(IOException.class, () -> BinarySerialization.fromBytes(Arrays.copyOf(valid, valid.length - 3)));
+	}
+
+	private static byte[] withShort(byte[] bytes, int index, short value)
+	{
+		byte[] copy = bytes.clone();
+		ByteBuffer.wrap(copy).putShort(index, value);
+		return copy;
+	}
+
+	private static byte[] withInt(byte[] bytes, int index, int value)
+	{
+		byte[] copy = bytes.clone();
+		ByteBuffer.wrap(copy).putInt(index, value);
+		return copy;
+	}
+}
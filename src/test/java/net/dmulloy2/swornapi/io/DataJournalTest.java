@@ -0,0 +1,126 @@
+package net.dmulloy2.swornapi.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author dmulloy2
+ */
+
+public class DataJournalTest
+{
+	@TempDir
+	Path folder;
+
+	private File file;
+
+	@BeforeEach
+	public void setUp()
+	{
+		file = folder.resolve("journal.bin").toFile();
+	}
+
+	@Test
+	public void testReplay() throws IOException
+	{
+		UUID first = UUID.randomUUID();
+		UUID second = UUID.randomUUID();
+
+		try (DataJournal journal = new DataJournal(file, FsyncPolicy.NEVER, 0))
+		{
+			journal.append(first, snapshot(1));
+			long saved = journal.append(first, snapshot(2));
+			journal.append(second, snapshot(3));
+			journal.appendSaved(first, saved);
+			journal.appendSaved(second, saved);
+		}
+
+		// The marker for the second player was taken before its snapshot
+		try (DataJournal journal = new DataJournal(file, FsyncPolicy.NEVER, 0))
+		{
+			Map<UUID, byte[]> changes = journal.replay();
+			assertEquals(1, changes.size());
+			assertEquals(3, coins(changes.get(second)));
+			assertEquals(3, journal.getSequence());
+		}
+	}
+
+	@Test
+	public void testRotate() throws IOException
+	{
+		UUID first = UUID.randomUUID();
+		UUID second = UUID.randomUUID();
+
+		try (DataJournal journal = new DataJournal(file, FsyncPolicy.NEVER, 0))
+		{
+			journal.append(first, snapshot(1));
+			long generation = journal.rotate();
+			journal.append(second, snapshot(2));
+			assertEquals(2, journal.replay().size());
+
+			// A newer rotation holds records the older save did not cover
+			long newer = journal.rotate();
+			journal.commit(generation);
+			assertEquals(2, journal.replay().size());
+
+			journal.commit(newer);
+			assertTrue(journal.replay().isEmpty());
+		}
+	}
+
+	@Test
+	public void testTornTail() throws IOException
+	{
+		UUID first = UUID.randomUUID();
+		UUID second = UUID.randomUUID();
+
+		try (DataJournal journal = new DataJournal(file, FsyncPolicy.NEVER, 0))
+		{
+			journal.append(first, snapshot(1));
+			journal.append(second, snapshot(2));
+		}
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+		{
+			raf.setLength(raf.length() - 3);
+		}
+
+		try (DataJournal journal = new DataJournal(file, FsyncPolicy.NEVER, 0))
+		{
+			Map<UUID, byte[]> changes = journal.replay();
+			assertEquals(Set.of(first), changes.keySet());
+			assertEquals(1, coins(changes.get(first)));
+
+			// Records appended after the torn one must still be read
+			journal.append(second, snapshot(3));
+		}
+
+		try (DataJournal journal = new DataJournal(file, FsyncPolicy.NEVER, 0))
+		{
+			Map<UUID, byte[]> changes = journal.replay();
+			assertEquals(2, changes.size());
+			assertEquals(3, coins(changes.get(second)));
+		}
+	}
+
+	private static byte[] snapshot(int coins) throws IOException
+	{
+		return BinarySerialization.toBytes(Map.of("coins", coins));
+	}
+
+	private static Object coins(byte[] snapshot) throws IOException
+	{
+		return BinarySerialization.fromBytes(snapshot).get("coins");
+	}
+}
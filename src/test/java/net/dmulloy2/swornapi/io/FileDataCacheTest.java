@@ -0,0 +1,303 @@
+package net.dmulloy2.swornapi.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.bukkit.OfflinePlayer;
+import org.bukkit.Server;
+import org.bukkit.entity.Player;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.dmulloy2.swornapi.SwornPlugin;
+import net.dmulloy2.swornapi.handlers.LogHandler;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author dmulloy2
+ */
+
+public class FileDataCacheTest
+{
+	@TempDir
+	Path dataFolder;
+
+	private SwornPlugin plugin;
+
+	@BeforeEach
+	public void setUp()
+	{
+		plugin = mock(SwornPlugin.class);
+		when(plugin.getName()).thenReturn("Test");
+		when(plugin.getDataFolder()).thenReturn(dataFolder.toFile());
+		when(plugin.getLogHandler()).thenReturn(new LogHandler(plugin, Logger.getGlobal()));
+	}
+
+	@Test
+	public void testSkipsCleanData()
+	{
+		TestCache cache = new TestCache(plugin);
+		TestData changed = cache.put(UUID.randomUUID(), 5, 4);
+		TestData clean = cache.put(UUID.randomUUID(), 1, 2);
+
+		cache.save();
+		assertFalse(changed.hasUnsavedChanges());
+		assertFalse(clean.hasUnsavedChanges());
+
+		File changedFile = cache.file(changed.getId());
+		File cleanFile = cache.file(clean.getId());
+		assertTrue(changedFile.delete());
+		assertTrue(cleanFile.delete());
+
+		// Offsetting changes must still be detected
+		changed.coins = 4;
+		changed.purchases = 5;
+		assertTrue(changed.hasUnsavedChanges());
+
+		cache.save();
+		assertTrue(changedFile.exists());
+		assertFalse(cleanFile.exists());
+	}
+
+	@Test
+	public void testMarkDirtyForcesSave()
+	{
+		TestCache cache = new TestCache(plugin);
+		TestData data = cache.put(UUID.randomUUID(), 3, 0);
+
+		cache.save();
+		assertTrue(cache.file(data.getId()).delete());
+
+		data.markDirty();
+		assertTrue(data.hasUnsavedChanges());
+
+		cache.save();
+		assertTrue(cache.file(data.getId()).exists());
+	}
+
+	@Test
+	public void testMigrateLayout()
+	{
+		TestCache flat = new TestCache(plugin);
+		TestData data = flat.put(UUID.randomUUID(), 7, 1);
+		flat.save();
+
+		File flatFile = flat.file(data.getId());
+		assertTrue(flatFile.exists());
+
+		// Lookups fall back to the old layout until the files are moved
+		TestCache sharded = new TestCache(plugin);
+		sharded.setLayout(DirectoryLayout.SHARDED);
+		assertNotNull(sharded.loadData(player(data.getId())));
+
+		assertEquals(1, sharded.migrateLayout());
+		assertFalse(flatFile.exists());
+		assertTrue(sharded.file(data.getId()).exists());
+		assertNotNull(sharded.loadData(player(data.getId())));
+	}
+
+	@Test
+	public void testLayoutWithoutOldFiles()
+	{
+		TestCache cache = new TestCache(plugin);
+		cache.setLayout(DirectoryLayout.SHARDED);
+
+		TestData data = cache.put(UUID.randomUUID(), 2, 2);
+		cache.save();
+
+		// With no files in the flat layout, it is never checked again
+		File stray = new File(new File(dataFolder.toFile(), "players"), data.getId() + DataFormat.BINARY.getExtension());
+		assertTrue(cache.file(data.getId()).renameTo(stray));
+		assertNull(cache.loadData(player(data.getId())));
+	}
+
+	@Test
+	public void testConcurrentLoadsShared()
+	{
+		UUID id = UUID.randomUUID();
+		Server server = mock(Server.class);
+		when(server.getOfflinePlayer(id)).thenReturn(player(id));
+		when(plugin.getServer()).thenReturn(server);
+
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger loads = new AtomicInteger();
+
+		TestCache cache = new TestCache(plugin)
+		{
+			@Override
+			public TestData loadData(OfflinePlayer player)
+			{
+				loads.incrementAndGet();
+
+				try
+				{
+					release.await();
+				}
+				catch (InterruptedException ex)
+				{
+					Thread.currentThread().interrupt();
+				}
+
+				TestData data = new TestData();
+				data.id = player.getUniqueId();
+				return data;
+			}
+		};
+
+		// The second request arrives while the first is still loading
+		CompletableFuture<TestData> first = cache.getDataAsync(id);
+		CompletableFuture<TestData> second = cache.getDataAsync(id);
+		release.countDown();
+
+		assertSame(first.join(), second.join());
+		assertEquals(1, loads.get());
+		cache.shutdown().join();
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() throws InterruptedException
+	{
+		TestCache writer = new TestCache(plugin);
+		List<UUID> ids = new ArrayList<>();
+		for (int i = 0; i < 11; i++)
+			ids.add(writer.put(UUID.randomUUID(), i, 0).getId());
+		writer.save();
+
+		// The oldest entry belongs to an online player
+		Server server = mock(Server.class);
+		when(server.isPrimaryThread()).thenReturn(true);
+		when(server.getPlayer(ids.get(0))).thenReturn(mock(Player.class));
+		when(plugin.getServer()).thenReturn(server);
+
+		TestCache cache = new TestCache(plugin);
+		cache.setCachePolicy(new CachePolicy().setMaxEntries(10));
+
+		for (UUID id : ids)
+		{
+			assertNotNull(cache.getData(player(id)));
+			Thread.sleep(2);
+		}
+
+		// Going over the limit evicts down to 10% below it
+		assertEquals(9, cache.getAllLoadedData().size());
+		assertTrue(cache.getAllLoadedData().containsKey(ids.get(0)));
+		assertFalse(cache.getAllLoadedData().containsKey(ids.get(1)));
+		assertFalse(cache.getAllLoadedData().containsKey(ids.get(2)));
+		assertTrue(cache.getAllLoadedData().containsKey(ids.get(3)));
+	}
+
+	@Test
+	public void testFlushCoversJournal() throws IOException
+	{
+		File journal = new File(dataFolder.toFile(), "journal.bin");
+
+		TestCache cache = new TestCache(plugin);
+		cache.enableJournal(journal, FsyncPolicy.NEVER, 0);
+
+		TestData data = cache.put(UUID.randomUUID(), 1, 0);
+		cache.markDirty(data.getId());
+		data.coins = 2;
+
+		cache.flush().join();
+		cache.disableJournal();
+
+		// The journaled snapshot is older than the flushed data
+		TestCache reopened = new TestCache(plugin);
+		assertEquals(0, reopened.enableJournal(journal, FsyncPolicy.NEVER, 0));
+		assertEquals(2, BinarySerialization.read(cache.file(data.getId())).get("coins"));
+		reopened.disableJournal();
+	}
+
+	@Test
+	public void testFailedReplayKept() throws IOException
+	{
+		File journal = new File(dataFolder.toFile(), "journal.bin");
+
+		TestCache cache = new TestCache(plugin);
+		cache.enableJournal(journal, FsyncPolicy.NEVER, 0);
+
+		TestData data = cache.put(UUID.randomUUID(), 1, 0);
+		cache.markDirty(data.getId());
+		cache.disableJournal();
+
+		// A directory in place of the data file makes every write fail
+		File file = cache.file(data.getId());
+		File blocker = new File(file, "blocker");
+		assertTrue(blocker.mkdirs());
+
+		TestCache reopened = new TestCache(plugin);
+		assertEquals(0, reopened.enableJournal(journal, FsyncPolicy.NEVER, 0));
+		reopened.save();
+		reopened.disableJournal();
+
+		// The save could not write the snapshot, so it must still be journaled
+		assertTrue(blocker.delete());
+		assertTrue(file.delete());
+
+		TestCache recovered = new TestCache(plugin);
+		assertEquals(1, recovered.enableJournal(journal, FsyncPolicy.NEVER, 0));
+		assertEquals(1, BinarySerialization.read(file).get("coins"));
+		recovered.disableJournal();
+	}
+
+	private static OfflinePlayer player(UUID id)
+	{
+		OfflinePlayer player = mock(OfflinePlayer.class);
+		when(player.getUniqueId()).thenReturn(id);
+		return player;
+	}
+
+	public static class TestData extends AbstractPlayerData
+	{
+		private int coins;
+		private int purchases;
+	}
+
+	private static class TestCache extends FileDataCache<TestData>
+	{
+		private TestCache(SwornPlugin plugin)
+		{
+			super(plugin, "players", DataFormat.BINARY);
+		}
+
+		private TestData put(UUID id, int coins, int purchases)
+		{
+			TestData data = new TestData();
+			data.id = id;
+			data.coins = coins;
+			data.purchases = purchases;
+			cache.put(id, data);
+			return data;
+		}
+
+		private File file(UUID id)
+		{
+			File folder = getLayout().getDirectory(new File(plugin.getDataFolder(), "players"), id);
+			return new File(folder, id + DataFormat.BINARY.getExtension());
+		}
+
+		@Override
+		protected TestData dataCtor()
+		{
+			return new TestData();
+		}
+
+		@Override
+		public TestData newData(OfflinePlayer player)
+		{
+			return new TestData();
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package net.dmulloy2.swornapi.io;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author dmulloy2
+ */
+
+public class FileSerializationTest
+{
+	@Test
+	public void testMatchesReflection()
+	{
+		Sample populated = Sample.populated();
+		Map<String, Object> expected = reflect(populated);
+		Map<String, Object> actual = FileSerialization.serialize(populated);
+		assertEquals(expected, actual);
+		assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(actual.keySet()));
+
+		// Zero, empty, and null fields are left out the same way
+		Sample empty = new Sample();
+		assertEquals(reflect(empty), FileSerialization.serialize(empty));
+	}
+
+	@Test
+	public void testRoundTrip()
+	{
+		Sample populated = Sample.populated();
+		Map<String, Object> values = FileSerialization.serialize(populated);
+
+		Sample copy = new Sample();
+		FileSerialization.deserialize(copy, values);
+		assertEquals(values, FileSerialization.serialize(copy));
+		assertEquals(0, copy.cached);
+	}
+
+	@Test
+	public void testCoercesNumbers()
+	{
+		Sample sample = new Sample();
+		FileSerialization.deserialize(sample, Map.of("count", 3L, "total", 4));
+		assertEquals(3, sample.count);
+		assertEquals(4L, sample.total);
+	}
+
+	/**
+	 * The reflective serializer the per-class codecs replaced.
+	 */
+	private static Map<String, Object> reflect(Object object)
+	{
+		Map<String, Object> data = new LinkedHashMap<>();
+
+		for (Field field : object.getClass().getDeclaredFields())
+		{
+			try
+			{
+				if (Modifier.isTransient(field.getModifiers()))
+					continue;
+
+				field.setAccessible(true);
+
+				Class<?> type = field.getType();
+				Object value = field.get(object);
+
+				if (type.equals(Integer.TYPE))
+				{
+					if ((Integer) value != 0)
+						data.put(field.getName(), value);
+				}
+				else if (type.equals(Long.TYPE))
+				{
+					if ((Long) value != 0)
+						data.put(field.getName(), value);
+				}
+				else if (type.equals(Boolean.TYPE))
+				{
+					if ((Boolean) value)
+						data.put(field.getName(), value);
+				}
+				else if (type.isAssignableFrom(Collection.class))
+				{
+					if (! ((Collection<?>) value).isEmpty())
+						data.put(field.getName(), value);
+				}
+				else if (type.isAssignableFrom(String.class))
+				{
+					if (value != null)
+						data.put(field.getName(), value);
+				}
+				else if (type.isAssignableFrom(Map.class))
+				{
+					if (! ((Map<?, ?>) value).isEmpty())
+						data.put(field.getName(), value);
+				}
+				else if (type.isEnum())
+				{
+					data.put(field.getName(), ((Enum<?>) value).name().toLowerCase());
+				}
+				else if (value != null)
+				{
+					Method serialize = findSerializer(type);
+					data.put(field.getName(), serialize != null ? serialize.invoke(value) : value);
+				}
+			}
+			catch (ReflectiveOperationException | RuntimeException ignored) { }
+		}
+
+		return data;
+	}
+
+	private static Method findSerializer(Class<?> type)
+	{
+		try
+		{
+			Method method = type.getMethod("serialize");
+			return method.getReturnType() == Object.class ? method : null;
+		}
+		catch (NoSuchMethodException ex)
+		{
+			return null;
+		}
+	}
+
+	public enum Rank
+	{
+		MEMBER,
+		ADMIN;
+	}
+
+	public static class Point
+	{
+		private final int x;
+		private final int y;
+
+		public Point(int x, int y)
+		{
+			this.x = x;
+			this.y = y;
+		}
+
+		public Object serialize()
+		{
+			return x + "," + y;
+		}
+
+		public static Point deserialize(Object value)
+		{
+			String[] split = value.toString().split(",");
+			return new Point(Integer.parseInt(split[0]), Integer.parseInt(split[1]));
+		}
+	}
+
+	public static class Sample
+	{
+		private int count;
+		private long total;
+		private boolean active;
+		private Collection<String> tags;
+		private List<String> names;
+		private String title;
+		private Map<String, Object> extra;
+		private Rank rank;
+		private Point home;
+		private UUID owner;
+		private transient int cached;
+
+		private static Sample populated()
+		{
+			Sample sample = new Sample();
+			sample.count = 3;
+			sample.total = 1L << 40;
+			sample.active = true;
+			sample.tags = new ArrayList<>(List.of("a", "b"));
+			sample.names = new ArrayList<>(List.of("c"));
+			sample.title = "title";
+			sample.extra = new LinkedHashMap<>(Map.of("key", 1));
+			sample.rank = Rank.ADMIN;
+			sample.home = new Point(1, 2);
+			sample.owner = UUID.randomUUID();
+			sample.cached = 7;
+			return sample;
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package net.dmulloy2.swornapi.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author dmulloy2
+ */
+
+public class IOUtilTest
+{
+	@TempDir
+	Path folder;
+
+	@Test
+	public void testReadLinesMapped() throws IOException
+	{
+		// Multibyte characters and CRLF endings end up split across regions
+		File file = write("first\r\nzweite Zeile ä\n\n日本語の行\r\n\r\nlast ✓", "lines.txt");
+		List<String> expected = IOUtil.readLines(file, StandardCharsets.UTF_8);
+		assertEquals(6, expected.size());
+
+		for (int regionSize = 1; regionSize <= 16; regionSize++)
+			assertEquals(expected, IOUtil.readLinesMapped(file, regionSize), "region size " + regionSize);
+
+		assertEquals(expected, IOUtil.readLinesMapped(file));
+	}
+
+	@Test
+	public void testReadLinesMappedTrailingNewline() throws IOException
+	{
+		File file = write("a\r\nb\r\n", "trailing.txt");
+		for (int regionSize = 1; regionSize <= 4; regionSize++)
+			assertEquals(List.of("a", "b"), IOUtil.readLinesMapped(file, regionSize));
+
+		assertTrue(IOUtil.readLinesMapped(write("", "empty.txt"), 1).isEmpty());
+	}
+
+	private File write(String contents, String name) throws IOException
+	{
+		File file = folder.resolve(name).toFile();
+		Files.writeString(file.toPath(), contents, StandardCharsets.UTF_8);
+		return file;
+	}
+}